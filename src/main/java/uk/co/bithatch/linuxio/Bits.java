@@ -0,0 +1,144 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * Helpers for bitsets held as <code>long[]</code>, and for converting them to
+ * and from the arrays of native <code>unsigned long</code> the kernel uses for
+ * its bitmaps.
+ */
+final class Bits {
+
+	/** Number of bits in a native long. */
+	final static int NATIVE_LONG_BITS = Native.LONG_SIZE * 8;
+
+	private Bits() {
+	}
+
+	/**
+	 * Number of <code>long</code> words needed to hold a number of bits.
+	 *
+	 * @param bits bits
+	 * @return words
+	 */
+	static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	/**
+	 * Number of bytes the kernel uses for a bitmap of a number of bits.
+	 *
+	 * @param bits bits
+	 * @return bytes
+	 */
+	static int nativeBytes(int bits) {
+		return ((bits + NATIVE_LONG_BITS - 1) / NATIVE_LONG_BITS) * Native.LONG_SIZE;
+	}
+
+	/**
+	 * Test a bit. Bits outside of the set are never set.
+	 *
+	 * @param words bitset
+	 * @param bit   bit
+	 * @return set
+	 */
+	static boolean test(long[] words, int bit) {
+		int w = bit >>> 6;
+		return bit >= 0 && w < words.length && (words[w] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Set or clear a bit.
+	 *
+	 * @param words bitset
+	 * @param bit   bit
+	 * @param on    set
+	 */
+	static void set(long[] words, int bit, boolean on) {
+		if (on)
+			words[bit >>> 6] |= 1L << bit;
+		else
+			words[bit >>> 6] &= ~(1L << bit);
+	}
+
+	/**
+	 * Convert a kernel bitmap into a bitset.
+	 *
+	 * @param ptr  pointer to the kernel bitmap
+	 * @param bits number of bits
+	 * @return bitset
+	 */
+	static long[] fromNative(Pointer ptr, int bits) {
+		long[] words = new long[words(bits)];
+		int nwords = nativeBytes(bits) / Native.LONG_SIZE;
+		for (int i = 0; i < nwords; i++) {
+			if (Native.LONG_SIZE == 8) {
+				words[i] = ptr.getLong(i * 8L);
+			} else {
+				words[i >>> 1] |= (ptr.getInt(i * 4L) & 0xffffffffL) << ((i & 1) * 32);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Convert a kernel bitmap as shown in sysfs into a bitset. Sysfs shows the
+	 * bitmap as native longs in hex separated by spaces, most significant first,
+	 * with leading zero longs left out.
+	 *
+	 * @param text bitmap text
+	 * @param bits number of bits
+	 * @return bitset
+	 */
+	static long[] fromSysfs(String text, int bits) {
+		long[] words = new long[words(bits)];
+		String[] tokens = text.trim().split("\\s+");
+		for (int i = 0; i < tokens.length; i++) {
+			String token = tokens[tokens.length - 1 - i];
+			if (token.isEmpty())
+				continue;
+			for (long v = Long.parseUnsignedLong(token, 16); v != 0; v &= v - 1) {
+				int bit = i * NATIVE_LONG_BITS + Long.numberOfTrailingZeros(v);
+				if (bit < bits)
+					set(words, bit, true);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Convert a bitset into a kernel bitmap.
+	 *
+	 * @param words bitset
+	 * @param ptr   pointer to memory of at least {@link #nativeBytes(int)} bytes
+	 * @param bits  number of bits
+	 */
+	static void toNative(long[] words, Pointer ptr, int bits) {
+		int nwords = nativeBytes(bits) / Native.LONG_SIZE;
+		for (int i = 0; i < nwords; i++) {
+			if (Native.LONG_SIZE == 8) {
+				ptr.setLong(i * 8L, i < words.length ? words[i] : 0);
+			} else {
+				ptr.setInt(i * 4L, (i >>> 1) < words.length ? (int) (words[i >>> 1] >>> ((i & 1) * 32)) : 0);
+			}
+		}
+	}
+}
@@ -62,39 +62,39 @@ public interface CLib extends com.sun.jna.Library {
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
 	public static final int O_ACCMODE = (int) 003;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_APPEND = (int) 2000;
+	public static final int O_APPEND = (int) 02000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_ASYNC = (int) 20000;
+	public static final int O_ASYNC = (int) 020000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_CLOEXEC = (int) 2000000;
+	public static final int O_CLOEXEC = (int) 02000000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_CREAT = (int) 100;
+	public static final int O_CREAT = (int) 0100;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_DIRECTORY = (int) 200000;
+	public static final int O_DIRECTORY = (int) 0200000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_DSYNC = (int) 10000;
+	public static final int O_DSYNC = (int) 010000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_EXCL = (int) 200;
+	public static final int O_EXCL = (int) 0200;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_FSYNC = (int) 4010000;
+	public static final int O_FSYNC = (int) 04010000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_NDELAY = (int) 4000;
+	public static final int O_NDELAY = (int) 04000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_NOCTTY = (int) 400;
+	public static final int O_NOCTTY = (int) 0400;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_NOFOLLOW = (int) 400000;
+	public static final int O_NOFOLLOW = (int) 0400000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_NONBLOCK = (int) 4000;
+	public static final int O_NONBLOCK = (int) 04000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
 	public static final int O_RDONLY = (int) 0;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
 	public static final int O_RDWR = (int) 2;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_RSYNC = (int) 4010000;
+	public static final int O_RSYNC = (int) 04010000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_SYNC = (int) 4010000;
+	public static final int O_SYNC = (int) 04010000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
-	public static final int O_TRUNC = (int) 1000;
+	public static final int O_TRUNC = (int) 01000;
 	/** <i>native declaration : bits/fcntl-linux.h</i> */
 	public static final int O_WRONLY = (int) 1;
 	/** <i>native declaration : asm-generic/ioctl.h</i> */
@@ -128,6 +128,114 @@ public interface CLib extends com.sun.jna.Library {
 	/** <i>native declaration : asm-generic/ioctl.h</i> */
 	public static final int _IOC_WRITE = (int) 1;
 
+	/** The Constant F_GETFL. */
+	public static final int F_GETFL = 3;
+
+	/** The Constant F_SETFL. */
+	public static final int F_SETFL = 4;
+
+	/** The Constant EINTR. */
+	public static final int EINTR = 4;
+
+	/** The Constant EAGAIN. */
+	public static final int EAGAIN = 11;
+
+	/** The Constant ENOENT. */
+	public static final int ENOENT = 2;
+
+	/** The Constant EBADF. */
+	public static final int EBADF = 9;
+
+	/** The Constant EPOLL_CLOEXEC. */
+	public static final int EPOLL_CLOEXEC = (int) 02000000;
+
+	/** The Constant EPOLL_CTL_ADD. */
+	public static final int EPOLL_CTL_ADD = 1;
+
+	/** The Constant EPOLL_CTL_DEL. */
+	public static final int EPOLL_CTL_DEL = 2;
+
+	/** The Constant EPOLL_CTL_MOD. */
+	public static final int EPOLL_CTL_MOD = 3;
+
+	/** The Constant EPOLLIN. */
+	public static final int EPOLLIN = 0x001;
+
+	/** The Constant EPOLLPRI. */
+	public static final int EPOLLPRI = 0x002;
+
+	/** The Constant EPOLLERR. */
+	public static final int EPOLLERR = 0x008;
+
+	/** The Constant EPOLLHUP. */
+	public static final int EPOLLHUP = 0x010;
+
+	/** The Constant EFD_CLOEXEC. */
+	public static final int EFD_CLOEXEC = (int) 02000000;
+
+	/** The Constant EFD_NONBLOCK. */
+	public static final int EFD_NONBLOCK = (int) 04000;
+
+	/** The Constant IN_CLOEXEC. */
+	public static final int IN_CLOEXEC = (int) 02000000;
+
+	/** The Constant IN_NONBLOCK. */
+	public static final int IN_NONBLOCK = (int) 04000;
+
+	/** The Constant IN_ATTRIB. */
+	public static final int IN_ATTRIB = 0x00000004;
+
+	/** The Constant IN_MOVED_FROM. */
+	public static final int IN_MOVED_FROM = 0x00000040;
+
+	/** The Constant IN_MOVED_TO. */
+	public static final int IN_MOVED_TO = 0x00000080;
+
+	/** The Constant IN_CREATE. */
+	public static final int IN_CREATE = 0x00000100;
+
+	/** The Constant IN_DELETE. */
+	public static final int IN_DELETE = 0x00000200;
+
+	/** The Constant IN_DELETE_SELF. */
+	public static final int IN_DELETE_SELF = 0x00000400;
+
+	/** The Constant IN_MOVE_SELF. */
+	public static final int IN_MOVE_SELF = 0x00000800;
+
+	/** The Constant IN_Q_OVERFLOW. */
+	public static final int IN_Q_OVERFLOW = 0x00004000;
+
+	/** The Constant IN_IGNORED. */
+	public static final int IN_IGNORED = 0x00008000;
+
+	/** The Constant IN_ONLYDIR. */
+	public static final int IN_ONLYDIR = 0x01000000;
+
+	/** The Constant CLOCK_REALTIME. */
+	public static final int CLOCK_REALTIME = 0;
+
+	/** The Constant CLOCK_MONOTONIC. */
+	public static final int CLOCK_MONOTONIC = 1;
+
+	/** The Constant CLOCK_BOOTTIME. */
+	public static final int CLOCK_BOOTTIME = 7;
+
+	/** The Constant SCHED_OTHER. */
+	public static final int SCHED_OTHER = 0;
+
+	/** The Constant SCHED_FIFO. */
+	public static final int SCHED_FIFO = 1;
+
+	/** The Constant SCHED_RR. */
+	public static final int SCHED_RR = 2;
+
+	/** The Constant MCL_CURRENT. */
+	public static final int MCL_CURRENT = 1;
+
+	/** The Constant MCL_FUTURE. */
+	public static final int MCL_FUTURE = 2;
+
 	/** The Constant KDMKTONE. */
 	public static final int KDMKTONE = 0x4B30;
 
@@ -241,6 +349,16 @@ public interface CLib extends com.sun.jna.Library {
 	 */
 	public int ioctl(int fd, int cmd, byte[] arg);
 
+	/**
+	 * Fcntl.
+	 *
+	 * @param fd the fd
+	 * @param cmd the cmd
+	 * @param arg the arg
+	 * @return the int
+	 */
+	public int fcntl(int fd, int cmd, int arg);
+
 	/**
 	 * Poll.
 	 *
@@ -251,6 +369,105 @@ public interface CLib extends com.sun.jna.Library {
 	 */
 	public int poll(pollfd[] fds, int nfds, int timeout);
 
+	/**
+	 * Epoll create1.
+	 *
+	 * @param flags the flags
+	 * @return the epoll fd, or -1 on error
+	 */
+	public int epoll_create1(int flags);
+
+	/**
+	 * Epoll ctl.
+	 *
+	 * @param epfd  the epoll fd
+	 * @param op    the operation
+	 * @param fd    the fd
+	 * @param event memory for a native struct epoll_event
+	 * @return the int
+	 */
+	public int epoll_ctl(int epfd, int op, int fd, Pointer event);
+
+	/**
+	 * Eventfd.
+	 *
+	 * @param initval the initial value of the counter
+	 * @param flags   the flags
+	 * @return the eventfd, or -1 on error
+	 */
+	public int eventfd(int initval, int flags);
+
+	/**
+	 * Inotify init1.
+	 *
+	 * @param flags the flags
+	 * @return the int
+	 */
+	public int inotify_init1(int flags);
+
+	/**
+	 * Inotify add watch.
+	 *
+	 * @param fd       the fd
+	 * @param pathname the pathname
+	 * @param mask     the mask
+	 * @return the watch descriptor
+	 */
+	public int inotify_add_watch(int fd, String pathname, int mask);
+
+	/**
+	 * Inotify rm watch.
+	 *
+	 * @param fd the fd
+	 * @param wd the watch descriptor
+	 * @return the int
+	 */
+	public int inotify_rm_watch(int fd, int wd);
+
+	/**
+	 * Sched setscheduler. A pid of zero means the calling thread.
+	 *
+	 * @param pid    the thread ID, or 0
+	 * @param policy the policy
+	 * @param param  a native struct sched_param, i.e. just the priority
+	 * @return the int
+	 */
+	public int sched_setscheduler(int pid, int policy, int[] param);
+
+	/**
+	 * Sched get priority min.
+	 *
+	 * @param policy the policy
+	 * @return the minimum priority, or -1 on error
+	 */
+	public int sched_get_priority_min(int policy);
+
+	/**
+	 * Sched get priority max.
+	 *
+	 * @param policy the policy
+	 * @return the maximum priority, or -1 on error
+	 */
+	public int sched_get_priority_max(int policy);
+
+	/**
+	 * Sched setaffinity. A pid of zero means the calling thread.
+	 *
+	 * @param pid        the thread ID, or 0
+	 * @param cpusetsize the size of the mask in bytes
+	 * @param mask       a native cpu_set_t
+	 * @return the int
+	 */
+	public int sched_setaffinity(int pid, NativeLong cpusetsize, Pointer mask);
+
+	/**
+	 * Mlockall.
+	 *
+	 * @param flags the flags
+	 * @return the int
+	 */
+	public int mlockall(int flags);
+
 	/**
 	 * Open.
 	 *
@@ -353,6 +570,97 @@ public interface CLib extends com.sun.jna.Library {
 	 */
 	int fb_notifier_call_chain(NativeLong val);
 
+	/**
+	 * Direct mapped versions of the functions used on the event read path. Unlike
+	 * calls through {@link CLib#INSTANCE}, calls to these do not allocate.
+	 */
+	final class Direct {
+
+		private Direct() {
+		}
+
+		/**
+		 * Read.
+		 *
+		 * @param fd    the fd
+		 * @param buf   the buffer
+		 * @param count the number of bytes to read
+		 * @return the number of bytes read, or -1 on error
+		 */
+		public static int read(int fd, Pointer buf, int count) {
+			return Native.LONG_SIZE == 8 ? LP64.read(fd, buf, count) : ILP32.read(fd, buf, count);
+		}
+
+		/**
+		 * Poll.
+		 *
+		 * @param fds     memory containing <code>nfds</code> native pollfd structures
+		 * @param nfds    the nfds
+		 * @param timeout the timeout
+		 * @return the int
+		 */
+		public static int poll(Pointer fds, int nfds, int timeout) {
+			return Native.LONG_SIZE == 8 ? LP64.poll(fds, nfds, timeout) : ILP32.poll(fds, nfds, timeout);
+		}
+
+		/**
+		 * Epoll wait.
+		 *
+		 * @param epfd      the epoll fd
+		 * @param events    memory for <code>maxEvents</code> native struct epoll_event
+		 * @param maxEvents the maximum number of events
+		 * @param timeout   the timeout
+		 * @return the number of ready fds, or -1 on error
+		 */
+		public static int epoll_wait(int epfd, Pointer events, int maxEvents, int timeout) {
+			return Native.LONG_SIZE == 8 ? LP64.epoll_wait(epfd, events, maxEvents, timeout)
+					: ILP32.epoll_wait(epfd, events, maxEvents, timeout);
+		}
+
+		/**
+		 * Clock gettime.
+		 *
+		 * @param clockId the clock id
+		 * @param tp      memory for a native struct timespec
+		 * @return the int
+		 */
+		public static int clock_gettime(int clockId, Pointer tp) {
+			return Native.LONG_SIZE == 8 ? LP64.clock_gettime(clockId, tp) : ILP32.clock_gettime(clockId, tp);
+		}
+
+		/*
+		 * size_t and nfds_t are native longs. ssize_t results are taken as an int, the
+		 * lower half of the return register, which is plenty for the sizes used here.
+		 */
+		private final static class LP64 {
+			static {
+				Native.register(LP64.class, JNA_LIBRARY_NAME);
+			}
+
+			static native int read(int fd, Pointer buf, long count);
+
+			static native int poll(Pointer fds, long nfds, int timeout);
+
+			static native int clock_gettime(int clockId, Pointer tp);
+
+			static native int epoll_wait(int epfd, Pointer events, int maxEvents, int timeout);
+		}
+
+		private final static class ILP32 {
+			static {
+				Native.register(ILP32.class, JNA_LIBRARY_NAME);
+			}
+
+			static native int read(int fd, Pointer buf, int count);
+
+			static native int poll(Pointer fds, int nfds, int timeout);
+
+			static native int clock_gettime(int clockId, Pointer tp);
+
+			static native int epoll_wait(int epfd, Pointer events, int maxEvents, int timeout);
+		}
+	}
+
 	/**
 	 */
 	class pollfd extends Structure {
@@ -0,0 +1,190 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The capabilities of a device, held as one bitset per event type sized by
+ * that type's <code>*_CNT</code>, so testing for a capability is constant
+ * time. As a {@link java.util.Set} this is a view that creates
+ * {@link EventCode}s only as it is iterated. Codes the kernel reports that
+ * have no {@link EventCode} constant are still held, and may be tested for
+ * using {@link #contains(int, int)}, but are not included in the view.
+ */
+final class CapabilitySet extends AbstractSet<EventCode> {
+
+	private final long[][] bits = new long[EventCode.Ev.EV_CNT][];
+
+	CapabilitySet() {
+		for (int t = 0; t < bits.length; t++)
+			bits[t] = new long[Bits.words(EventCode.Type.count(t))];
+	}
+
+	/**
+	 * Get whether there are any capabilities of a type.
+	 *
+	 * @param type type code
+	 * @return has type
+	 */
+	boolean contains(int type) {
+		if (type < 0 || type >= bits.length)
+			return false;
+		for (long w : bits[type]) {
+			if (w != 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get whether there is a capability.
+	 *
+	 * @param type type code
+	 * @param code event code
+	 * @return has capability
+	 */
+	boolean contains(int type, int code) {
+		return type >= 0 && type < bits.length && Bits.test(bits[type], code);
+	}
+
+	/**
+	 * Get the bitset for a type. This is the live bitset, not a copy.
+	 *
+	 * @param type type code
+	 * @return bitset
+	 */
+	long[] get(int type) {
+		return bits[type];
+	}
+
+	/**
+	 * Replace the bitset for a type.
+	 *
+	 * @param type  type code
+	 * @param words bitset
+	 */
+	void set(int type, long[] words) {
+		long[] b = bits[type];
+		for (int i = 0; i < b.length; i++)
+			b[i] = i < words.length ? words[i] : 0;
+		/* Ignore anything beyond the types *_CNT */
+		int count = EventCode.Type.count(type);
+		if (b.length > 0 && (count & 63) != 0)
+			b[b.length - 1] &= (1L << count) - 1;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (o instanceof EventCode) {
+			EventCode e = (EventCode) o;
+			return contains(e.typeCode(), e.code());
+		}
+		return false;
+	}
+
+	@Override
+	public boolean add(EventCode e) {
+		long[] b = bits[e.typeCode()];
+		int w = e.code() >>> 6;
+		if (w >= b.length)
+			throw new IllegalArgumentException(String.format("%s is out of range for its type.", e));
+		if (Bits.test(b, e.code()))
+			return false;
+		Bits.set(b, e.code(), true);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (contains(o)) {
+			EventCode e = (EventCode) o;
+			Bits.set(bits[e.typeCode()], e.code(), false);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		for (long[] b : bits)
+			for (int i = 0; i < b.length; i++)
+				b[i] = 0;
+	}
+
+	@Override
+	public int size() {
+		int s = 0;
+		for (Iterator<EventCode> it = iterator(); it.hasNext(); it.next())
+			s++;
+		return s;
+	}
+
+	@Override
+	public Iterator<EventCode> iterator() {
+		return new Iterator<EventCode>() {
+			int type;
+			int code = -1;
+			EventCode next = advance();
+			EventCode last;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public EventCode next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				last = next;
+				next = advance();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				CapabilitySet.this.remove(last);
+				last = null;
+			}
+
+			private EventCode advance() {
+				for (; type < bits.length; type++, code = -1) {
+					long[] b = bits[type];
+					int from = code + 1;
+					for (int w = from >>> 6; w < b.length; w++) {
+						long word = b[w];
+						if (w == from >>> 6)
+							word &= -1L << (from & 63);
+						while (word != 0) {
+							code = (w << 6) + Long.numberOfTrailingZeros(word);
+							word &= word - 1;
+							if (EventCode.hasCode(type, (short) code))
+								return EventCode.fromCode(type, code);
+						}
+					}
+				}
+				return null;
+			}
+		};
+	}
+}
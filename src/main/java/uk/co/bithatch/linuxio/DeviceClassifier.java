@@ -0,0 +1,332 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+import uk.co.bithatch.linuxio.EventCode.Property;
+import uk.co.bithatch.linuxio.EventCode.Type;
+
+/**
+ * Works out what kind of device an {@link InputDevice} is from its capability
+ * bitmaps, and remembers the answer for each device node. Device nodes that
+ * have not been classified yet are described using sysfs where possible (see
+ * {@link InputDevice#probe(Path)}), so they need not be opened. A node is
+ * classified again if it is replaced by a different device.
+ * <p>
+ * A shared instance is used by the keyboard and pointer helpers in
+ * {@link InputDevice}, so they only open the devices they return.
+ */
+public final class DeviceClassifier {
+
+	final static Logger LOG = System.getLogger(DeviceClassifier.class.getName());
+
+	/**
+	 * The kinds of device. A device may be more than one kind.
+	 */
+	public enum DeviceClass {
+		/** Has more than a handful of keys. */
+		KEYBOARD,
+		/** Has X or Y axes, and buttons. */
+		POINTER,
+		/** An indirect touch surface, such as a laptop touchpad. */
+		TOUCHPAD,
+		/** A direct touch surface, on top of a display. */
+		TOUCHSCREEN,
+		/** A joystick or gamepad. */
+		JOYSTICK,
+		/** A graphics tablet, or anything else with a pen or stylus. */
+		TABLET,
+		/** Has switches, such as a lid or headphone jack. */
+		SWITCH
+	}
+
+	/**
+	 * The result of classifying a device.
+	 */
+	public final static class Classification {
+		private final Set<DeviceClass> classes;
+		private final DeviceClass primary;
+		private final boolean relative;
+		private final boolean absolute;
+		private final boolean buttons;
+
+		private Classification(Set<DeviceClass> classes, boolean relative, boolean absolute, boolean buttons) {
+			this.classes = Collections.unmodifiableSet(classes);
+			this.relative = relative;
+			this.absolute = absolute;
+			this.buttons = buttons;
+			DeviceClass p = null;
+			for (DeviceClass c : PRIMARY_ORDER) {
+				if (classes.contains(c)) {
+					p = c;
+					break;
+				}
+			}
+			primary = p;
+		}
+
+		/**
+		 * Get every kind of device this is.
+		 *
+		 * @return classes
+		 */
+		public Set<DeviceClass> getClasses() {
+			return classes;
+		}
+
+		/**
+		 * Get the most specific kind of device this is. For example, a touchpad is
+		 * also a pointer, but is primarily a touchpad.
+		 *
+		 * @return primary class, or <code>null</code> if it is none of them
+		 */
+		public DeviceClass getPrimary() {
+			return primary;
+		}
+
+		/**
+		 * Get whether the device is a kind of device.
+		 *
+		 * @param deviceClass device class
+		 * @return is of class
+		 */
+		public boolean is(DeviceClass deviceClass) {
+			return classes.contains(deviceClass);
+		}
+
+		/**
+		 * Get whether the device looks like a pointer that reports events of a
+		 * type. For {@link Type#EV_REL} or {@link Type#EV_ABS}, the device must
+		 * have the X or Y axis of that type. For any type, it must have at least
+		 * one button.
+		 *
+		 * @param type type
+		 * @return is pointer
+		 */
+		public boolean isPointer(Type type) {
+			if (type == Type.EV_REL && !relative)
+				return false;
+			if (type == Type.EV_ABS && !absolute)
+				return false;
+			return buttons;
+		}
+
+		@Override
+		public String toString() {
+			return "Classification [primary=" + primary + ", classes=" + classes + "]";
+		}
+	}
+
+	private final static DeviceClass[] PRIMARY_ORDER = new DeviceClass[] { DeviceClass.TABLET,
+			DeviceClass.TOUCHSCREEN, DeviceClass.TOUCHPAD, DeviceClass.JOYSTICK, DeviceClass.POINTER,
+			DeviceClass.KEYBOARD, DeviceClass.SWITCH };
+
+	/* The same keys and buttons EventCode.isKey() and isButton() would report */
+	private final static long[] KEYS = new long[Bits.words(Type.count(Ev.EV_KEY))];
+	private final static long[] BUTTONS = new long[Bits.words(Type.count(Ev.EV_KEY))];
+	private final static long[] JOYSTICK_BUTTONS = new long[Bits.words(Type.count(Ev.EV_KEY))];
+
+	static {
+		for (int code = 0; code < Type.count(Ev.EV_KEY); code++) {
+			if (EventCode.hasCode(Ev.EV_KEY, (short) code)) {
+				EventCode e = EventCode.fromCode(Ev.EV_KEY, code);
+				if (e.isKey())
+					Bits.set(KEYS, code, true);
+				else if (e.isButton())
+					Bits.set(BUTTONS, code, true);
+			}
+		}
+		for (int code = EventCode.BTN_JOYSTICK.code(); code < EventCode.BTN_DIGI.code(); code++)
+			Bits.set(JOYSTICK_BUTTONS, code, true);
+		for (int code = EventCode.BTN_TRIGGER_HAPPY.code(); code <= EventCode.BTN_TRIGGER_HAPPY40.code(); code++)
+			Bits.set(JOYSTICK_BUTTONS, code, true);
+	}
+
+	private final static DeviceClassifier INSTANCE = new DeviceClassifier();
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Get the shared classifier.
+	 *
+	 * @return classifier
+	 */
+	public static DeviceClassifier getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Classify a device from its capabilities. Nothing is remembered.
+	 *
+	 * @param device device
+	 * @return classification
+	 */
+	public static Classification classify(InputDevice device) {
+		long[] key = device.getCapabilityBits(Ev.EV_KEY);
+		boolean relative = device.hasCapability(EventCode.REL_X) || device.hasCapability(EventCode.REL_Y);
+		boolean absolute = device.hasCapability(EventCode.ABS_X) || device.hasCapability(EventCode.ABS_Y);
+		boolean buttons = intersects(key, BUTTONS);
+		boolean touch = Bits.test(key, EventCode.BTN_TOUCH.code());
+		boolean positioned = absolute || device.hasCapability(EventCode.ABS_MT_POSITION_X);
+		Set<Property> props = device.getProperties();
+
+		Set<DeviceClass> classes = EnumSet.noneOf(DeviceClass.class);
+		if (count(key, KEYS) > 5)
+			classes.add(DeviceClass.KEYBOARD);
+		if ((relative || absolute) && buttons)
+			classes.add(DeviceClass.POINTER);
+		if (device.hasCapability(Ev.EV_SW))
+			classes.add(DeviceClass.SWITCH);
+		if (positioned) {
+			if (Bits.test(key, EventCode.BTN_TOOL_PEN.code()) || Bits.test(key, EventCode.BTN_STYLUS.code()))
+				classes.add(DeviceClass.TABLET);
+			else if (touch && (props.contains(Property.INPUT_PROP_DIRECT)
+					|| !Bits.test(key, EventCode.BTN_TOOL_FINGER.code())))
+				classes.add(DeviceClass.TOUCHSCREEN);
+			else if (touch || Bits.test(key, EventCode.BTN_TOOL_FINGER.code()))
+				classes.add(DeviceClass.TOUCHPAD);
+			else if (intersects(key, JOYSTICK_BUTTONS))
+				classes.add(DeviceClass.JOYSTICK);
+		}
+		return new Classification(classes, relative, absolute, buttons);
+	}
+
+	/**
+	 * Get the classification of a device, classifying it if it has not been
+	 * already.
+	 *
+	 * @param device device
+	 * @return classification
+	 */
+	public Classification get(InputDevice device) {
+		Path path = device.getFile();
+		long[] identity = path == null ? null : InputDeviceCache.nodeIdentity(path);
+		if (identity == null)
+			return classify(device);
+		String key = path.toAbsolutePath().toString();
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && Arrays.equals(entry.identity, identity))
+				return entry.classification;
+		}
+		return remember(key, identity, classify(device));
+	}
+
+	/**
+	 * Get the classification of a device node, classifying it if it has not
+	 * been already. The device is described using sysfs if possible, otherwise
+	 * it is opened just long enough to read its capabilities.
+	 *
+	 * @param path device file
+	 * @return classification
+	 * @throws IOException if the device cannot be probed
+	 */
+	public Classification get(Path path) throws IOException {
+		long[] identity = InputDeviceCache.nodeIdentity(path);
+		String key = path.toAbsolutePath().toString();
+		if (identity != null) {
+			synchronized (entries) {
+				Entry entry = entries.get(key);
+				if (entry != null && Arrays.equals(entry.identity, identity))
+					return entry.classification;
+			}
+		}
+		InputDevice device;
+		try {
+			device = InputDevice.probe(path);
+		} catch (IOException ioe) {
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Cannot probe " + path + " using sysfs, opening it instead", ioe);
+			device = new InputDevice(path);
+		}
+		try {
+			Classification classification = classify(device);
+			return identity == null ? classification : remember(key, identity, classification);
+		} finally {
+			device.close();
+		}
+	}
+
+	/**
+	 * Forget the classification of a device node.
+	 *
+	 * @param path device file
+	 */
+	public void invalidate(Path path) {
+		synchronized (entries) {
+			entries.remove(path.toAbsolutePath().toString());
+		}
+	}
+
+	/**
+	 * Forget all classifications.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	private Classification remember(String key, long[] identity, Classification classification) {
+		synchronized (entries) {
+			entries.put(key, new Entry(identity, classification));
+		}
+		if (LOG.isLoggable(Level.DEBUG))
+			LOG.log(Level.DEBUG, key + " is " + classification);
+		return classification;
+	}
+
+	private static boolean intersects(long[] bits, long[] mask) {
+		for (int i = 0; i < bits.length && i < mask.length; i++) {
+			if ((bits[i] & mask[i]) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	private static int count(long[] bits, long[] mask) {
+		int count = 0;
+		for (int i = 0; i < bits.length && i < mask.length; i++)
+			count += Long.bitCount(bits[i] & mask[i]);
+		return count;
+	}
+
+	/**
+	 * A remembered classification, and the identity of the node it was made for.
+	 */
+	private final static class Entry {
+		private final long[] identity;
+		private final Classification classification;
+
+		private Entry(long[] identity, Classification classification) {
+			this.identity = identity;
+			this.classification = classification;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.co.bithatch.linuxio.InputController.OverflowPolicy;
+import uk.co.bithatch.linuxio.InputDevice.RawEventSink;
+
+/**
+ * A bounded single producer, single consumer ring of events between the thread
+ * reading a device and an {@link Executor} that delivers them. The reading
+ * thread is the only producer. At most one drain task is running on the
+ * executor at any time, so there is only ever one consumer, although it may
+ * not always be the same thread.
+ * <p>
+ * Events are held as primitives in arrays allocated once, so once running
+ * nothing is allocated per event. What happens when the ring is full is
+ * decided by the {@link OverflowPolicy}. Whenever events are lost, a
+ * <code>SYN_DROPPED</code> is delivered in their place, just as the kernel
+ * does when its own buffer overflows.
+ */
+final class DispatchQueue implements RawEventSink, Runnable {
+
+	final static Logger LOG = System.getLogger(DispatchQueue.class.getName());
+
+	/* How long the producer parks for while waiting for space when blocking */
+	private final static long BLOCK_PARK_NANOS = 50000;
+
+	/* Maximum events delivered by one run before giving other tasks a turn */
+	private final static int MAX_BATCH = 256;
+
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+	private final static int ABS_MT_SLOT = EventCode.ABS_MT_SLOT.code();
+	private final static int ABS_MT_TRACKING_ID = EventCode.ABS_MT_TRACKING_ID.code();
+
+	private final RawEventSink target;
+	private final Executor executor;
+	private final OverflowPolicy policy;
+	private final int mask;
+	private final int[] types;
+	private final int[] codes;
+	private final int[] values;
+	private final long[] secs;
+	private final long[] usecs;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong overflows = new AtomicLong();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Coalesced coalesced;
+	private volatile boolean closed;
+
+	/* Producer only */
+	private boolean gap;
+
+	/* Consumer only */
+	private long consumed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param target   sink events are delivered to by the executor
+	 * @param executor executor to deliver events on
+	 * @param capacity capacity, rounded up to a power of two
+	 * @param policy   what to do when full
+	 */
+	DispatchQueue(RawEventSink target, Executor executor, int capacity, OverflowPolicy policy) {
+		if (capacity < 2 || capacity > 1 << 30)
+			throw new IllegalArgumentException(String.format("Queue capacity %d is out of range.", capacity));
+		this.target = target;
+		this.executor = executor;
+		this.policy = policy;
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		mask = size - 1;
+		types = new int[size];
+		codes = new int[size];
+		values = new int[size];
+		secs = new long[size];
+		usecs = new long[size];
+		coalesced = policy == OverflowPolicy.COALESCE ? new Coalesced(size) : null;
+	}
+
+	/**
+	 * Get the number of events waiting to be delivered.
+	 *
+	 * @return depth
+	 */
+	int depth() {
+		int depth = (int) (tail.get() - head.get());
+		return coalesced == null ? depth : depth + coalesced.size();
+	}
+
+	/**
+	 * Get the number of events that could not be queued as they arrived, because
+	 * the queue was full. With {@link OverflowPolicy#BLOCK}, this is the number of
+	 * times the reading thread had to wait.
+	 *
+	 * @return overflows
+	 */
+	long overflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * Stop delivering events. Anything still queued is discarded, and a blocked
+	 * producer gives up.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	/**
+	 * Queue an event. Must only be called by the reading thread.
+	 */
+	@Override
+	public void event(int type, int code, int value, long sec, long usec) {
+		if (closed)
+			return;
+		if (coalesced != null && coalesced.pending) {
+			/* Keep order, nothing goes in the ring until the consumer has taken these */
+			if (!coalesced.merge(type, code, value, sec, usec))
+				overflows.incrementAndGet();
+			schedule();
+			return;
+		}
+		long t = tail.get();
+		int needed = gap ? 2 : 1;
+		if (t - head.get() > mask + 1 - needed) {
+			overflows.incrementAndGet();
+			switch (policy) {
+			case BLOCK:
+				while (t - head.get() > mask + 1 - needed) {
+					if (closed)
+						return;
+					schedule();
+					LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				}
+				break;
+			case DROP_NEWEST:
+				gap = true;
+				schedule();
+				return;
+			case COALESCE:
+				coalesced.merge(type, code, value, sec, usec);
+				schedule();
+				return;
+			default:
+				/* Drop oldest, taking head from the consumer unless it just freed space */
+				while (t - head.get() > mask + 1 - needed) {
+					long h = head.get();
+					head.compareAndSet(h, h + 1);
+				}
+				break;
+			}
+		}
+		if (gap) {
+			put(t++, EventCode.Ev.EV_SYN, SYN_DROPPED, 0, sec, usec);
+			gap = false;
+		}
+		put(t, type, code, value, sec, usec);
+		tail.lazySet(t + 1);
+		if (type == EventCode.Ev.EV_SYN || t - head.get() >= mask)
+			schedule();
+	}
+
+	/**
+	 * Make sure everything queued so far will be delivered. Called by the
+	 * reading thread after each batch of reads.
+	 */
+	void flush() {
+		if (depth() > 0)
+			schedule();
+	}
+
+	/**
+	 * Deliver queued events. Only ever run by one thread at a time. If there are
+	 * more than one batch worth, the rest are delivered by a new task, so other
+	 * devices sharing the executor get a turn.
+	 */
+	@Override
+	public void run() {
+		drain();
+		scheduled.set(false);
+		if (depth() > 0)
+			schedule();
+	}
+
+	private void drain() {
+		for (int n = 0; n < MAX_BATCH && !closed; n++) {
+			long h = head.get();
+			if (h == tail.get()) {
+				if (coalesced != null && coalesced.pending) {
+					coalesced.deliver(target);
+					continue;
+				}
+				return;
+			}
+			if (h != consumed) {
+				/* The producer dropped the oldest events */
+				int slot = (int) h & mask;
+				deliver(target, EventCode.Ev.EV_SYN, SYN_DROPPED, 0, secs[slot], usecs[slot]);
+			}
+			int slot = (int) h & mask;
+			int type = types[slot];
+			int code = codes[slot];
+			int value = values[slot];
+			long sec = secs[slot];
+			long usec = usecs[slot];
+			if (!head.compareAndSet(h, h + 1)) {
+				/* Overwritten while reading it, start again from the new head */
+				consumed = -1;
+				continue;
+			}
+			consumed = h + 1;
+			deliver(target, type, code, value, sec, usec);
+		}
+	}
+
+	private static void deliver(RawEventSink target, int type, int code, int value, long sec, long usec) {
+		try {
+			target.event(type, code, value, sec, usec);
+		} catch (RuntimeException re) {
+			LOG.log(Level.ERROR, "Callback failed.", re);
+		}
+	}
+
+	private void put(long t, int type, int code, int value, long sec, long usec) {
+		int slot = (int) t & mask;
+		types[slot] = type;
+		codes[slot] = code;
+		values[slot] = value;
+		secs[slot] = sec;
+		usecs[slot] = usec;
+	}
+
+	private void schedule() {
+		if (!closed && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException ree) {
+				scheduled.set(false);
+				LOG.log(Level.WARNING, "Event delivery rejected by executor.", ree);
+			}
+		}
+	}
+
+	/**
+	 * Events that arrived while the ring was full, merged together. Relative
+	 * motion is summed, absolute axes keep their latest value, consecutive
+	 * <code>SYN_REPORT</code> collapse into one, and anything else (such as keys)
+	 * is kept as is and in order. Motion is never merged across a key, so
+	 * presses and releases stay between the motion that surrounded them.
+	 * <p>
+	 * Multi-touch slot changes and tracking IDs are treated like keys, so the
+	 * per-slot axes that follow a slot change are only ever merged with the same
+	 * slot's, and contacts starting and ending are kept. If even this fills up,
+	 * further events are lost and a <code>SYN_DROPPED</code> is delivered after
+	 * the merged events.
+	 */
+	private final static class Coalesced {
+		private final int capacity;
+		private int[] types = new int[16];
+		private int[] codes = new int[16];
+		private int[] values = new int[16];
+		private long[] secs = new long[16];
+		private long[] usecs = new long[16];
+		private int size;
+		private int barrier;
+		private boolean lost;
+		private long lostSec;
+		private long lostUsec;
+		private volatile boolean pending;
+
+		private Coalesced(int capacity) {
+			this.capacity = capacity;
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * Merge an event.
+		 *
+		 * @return <code>false</code> if the event was lost
+		 */
+		private synchronized boolean merge(int type, int code, int value, long sec, long usec) {
+			pending = true;
+			if (lost) {
+				/* Nothing more until the loss has been reported */
+				return false;
+			}
+			if (type == EventCode.Ev.EV_SYN && code == SYN_REPORT && size > barrier && isReport(size - 1)) {
+				secs[size - 1] = sec;
+				usecs[size - 1] = usec;
+				return true;
+			} else if (type == EventCode.Ev.EV_REL
+					|| (type == EventCode.Ev.EV_ABS && code != ABS_MT_SLOT && code != ABS_MT_TRACKING_ID)) {
+				for (int i = size - 1; i >= barrier; i--) {
+					if (types[i] == type && codes[i] == code) {
+						values[i] = type == EventCode.Ev.EV_REL ? values[i] + value : value;
+						secs[i] = sec;
+						usecs[i] = usec;
+						return true;
+					}
+				}
+			} else if (type != EventCode.Ev.EV_SYN) {
+				barrier = size + 1;
+			}
+			if (size == capacity) {
+				/* Even coalescing cannot keep up, so lose the event */
+				lost = true;
+				lostSec = sec;
+				lostUsec = usec;
+				return false;
+			}
+			if (size == types.length) {
+				int cap = Math.min(capacity, size * 2);
+				types = Arrays.copyOf(types, cap);
+				codes = Arrays.copyOf(codes, cap);
+				values = Arrays.copyOf(values, cap);
+				secs = Arrays.copyOf(secs, cap);
+				usecs = Arrays.copyOf(usecs, cap);
+			}
+			types[size] = type;
+			codes[size] = code;
+			values[size] = value;
+			secs[size] = sec;
+			usecs[size] = usec;
+			size++;
+			return true;
+		}
+
+		private boolean isReport(int index) {
+			return types[index] == EventCode.Ev.EV_SYN && codes[index] == SYN_REPORT;
+		}
+
+		private void deliver(RawEventSink target) {
+			int[] t, c, v;
+			long[] s, u;
+			int n;
+			boolean wasLost;
+			long lostSec, lostUsec;
+			synchronized (this) {
+				t = Arrays.copyOf(types, size);
+				c = Arrays.copyOf(codes, size);
+				v = Arrays.copyOf(values, size);
+				s = Arrays.copyOf(secs, size);
+				u = Arrays.copyOf(usecs, size);
+				n = size;
+				wasLost = lost;
+				lostSec = this.lostSec;
+				lostUsec = this.lostUsec;
+				size = 0;
+				barrier = 0;
+				lost = false;
+				pending = false;
+			}
+			for (int i = 0; i < n; i++)
+				DispatchQueue.deliver(target, t[i], c[i], v[i], s[i], u[i]);
+			if (wasLost)
+				DispatchQueue.deliver(target, EventCode.Ev.EV_SYN, SYN_DROPPED, 0, lostSec, lostUsec);
+		}
+	}
+}
@@ -1119,6 +1119,50 @@ public enum EventCode
 			return Ev.types.getOrDefault(type, Type.UNKNOWN);
 		}
 
+		/**
+		 * Get the number of codes there may be for this type (i.e. the kernel's
+		 * <code>*_CNT</code> constant), or zero if unknown.
+		 *
+		 * @return number of codes
+		 */
+		public int count() {
+			return count(nativeType);
+		}
+
+		/**
+		 * Get the number of codes there may be for a type (i.e. the kernel's
+		 * <code>*_CNT</code> constant), or zero if unknown.
+		 *
+		 * @param type the type
+		 * @return number of codes
+		 */
+		public static int count(int type) {
+			switch (type) {
+			case Ev.EV_SYN:
+				return SYN_MAX.code() + 1;
+			case Ev.EV_KEY:
+				return KEY_MAX.code() + 1;
+			case Ev.EV_REL:
+				return REL_CNT.code();
+			case Ev.EV_ABS:
+				return ABS_CNT.code();
+			case Ev.EV_MSC:
+				return MSC_CNT.code();
+			case Ev.EV_SW:
+				return SW_CNT.code();
+			case Ev.EV_LED:
+				return LED_CNT.code();
+			case Ev.EV_SND:
+				return SND_CNT.code();
+			case Ev.EV_REP:
+				return REP_CNT.code();
+			case Ev.EV_FF:
+				return 0x7f + 1;
+			default:
+				return 0;
+			}
+		}
+
 		/**
 		 * Gets the.
 		 *
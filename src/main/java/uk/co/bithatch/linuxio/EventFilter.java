@@ -0,0 +1,295 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import com.sun.jna.Pointer;
+
+import uk.co.bithatch.linuxio.EventCode.Type;
+
+/**
+ * Declares which event types and codes a subscriber to an
+ * {@link InputController} is interested in. Either whole types may be
+ * selected using {@link #types(Type...)}, or individual codes using
+ * {@link #codes(EventCode...)}. Synchronisation events (<code>EV_SYN</code>)
+ * are always accepted. The values accepted for a type may also be limited
+ * using {@link #values(Type, int, int)}.
+ * <p>
+ * Where possible, the filter is pushed down to the kernel (using
+ * <code>EVIOCSMASK</code>), so events that are not wanted are never read at
+ * all. Value ranges are always checked as events are read.
+ * 
+ * <pre>
+ * InputController.getInstance().add(device, callback,
+ * 		new EventFilter().codes(EventCode.KEY_F11, EventCode.KEY_F12));
+ * </pre>
+ */
+public class EventFilter {
+
+	private long types = 1L << EventCode.Ev.EV_SYN;
+	private final long[][] codes = new long[EventCode.Ev.EV_CNT][];
+	private int[][] values;
+
+	/**
+	 * Accept all codes of the given types.
+	 *
+	 * @param types types
+	 * @return this for chaining
+	 */
+	public EventFilter types(Type... types) {
+		for (Type t : types) {
+			checkType(t.code());
+			this.types |= 1L << t.code();
+			codes[t.code()] = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Accept the given codes (in addition to any others already selected).
+	 *
+	 * @param codes codes
+	 * @return this for chaining
+	 */
+	public EventFilter codes(EventCode... codes) {
+		for (EventCode c : codes) {
+			code(c.typeCode(), c.code());
+		}
+		return this;
+	}
+
+	/**
+	 * Accept the given code (in addition to any others already selected).
+	 *
+	 * @param type type
+	 * @param code code
+	 * @return this for chaining
+	 */
+	public EventFilter code(int type, int code) {
+		checkType(type);
+		int cnt = Type.count(type);
+		if (code < 0 || code >= cnt)
+			throw new IllegalArgumentException(String.format("Code %d is out of range for type %d.", code, type));
+		if ((types & (1L << type)) != 0 && codes[type] == null) {
+			/* Already accepting all codes of this type */
+			return this;
+		}
+		if (codes[type] == null)
+			codes[type] = new long[Bits.words(cnt)];
+		types |= 1L << type;
+		Bits.set(codes[type], code, true);
+		return this;
+	}
+
+	/**
+	 * Only accept events of a type with values between <code>min</code> and
+	 * <code>max</code> (inclusive). This does not select the type, that must be
+	 * done using {@link #types(Type...)} or {@link #codes(EventCode...)}.
+	 *
+	 * @param type type
+	 * @param min  minimum value
+	 * @param max  maximum value
+	 * @return this for chaining
+	 */
+	public EventFilter values(Type type, int min, int max) {
+		checkType(type.code());
+		if (min > max)
+			throw new IllegalArgumentException(String.format("Minimum %d is greater than maximum %d.", min, max));
+		if (values == null)
+			values = new int[EventCode.Ev.EV_CNT][];
+		values[type.code()] = new int[] { min, max };
+		return this;
+	}
+
+	/**
+	 * Get whether this filter limits the values of any type.
+	 *
+	 * @return has value ranges
+	 */
+	public boolean hasValueRanges() {
+		return values != null;
+	}
+
+	/**
+	 * Get whether this filter accepts an event, including its value.
+	 *
+	 * @param type  type
+	 * @param code  code
+	 * @param value value
+	 * @return accepted
+	 */
+	public boolean accepts(int type, int code, int value) {
+		return accepts(type, code) && acceptsValue(type, value);
+	}
+
+	/**
+	 * Get whether this filter accepts the value of an event of the given type,
+	 * regardless of its code.
+	 *
+	 * @param type  type
+	 * @param value value
+	 * @return accepted
+	 */
+	public boolean acceptsValue(int type, int value) {
+		if (values == null || type < 0 || type >= EventCode.Ev.EV_CNT)
+			return true;
+		int[] range = values[type];
+		return range == null || (value >= range[0] && value <= range[1]);
+	}
+
+	/**
+	 * Get whether this filter accepts an event, regardless of its value.
+	 *
+	 * @param type type
+	 * @param code code
+	 * @return accepted
+	 */
+	public boolean accepts(int type, int code) {
+		if (type < 0 || type >= EventCode.Ev.EV_CNT || (types & (1L << type)) == 0)
+			return false;
+		long[] c = codes[type];
+		return c == null || Bits.test(c, code);
+	}
+
+	/**
+	 * Check that a device is capable of producing all of the types and codes this
+	 * filter selects.
+	 *
+	 * @param device device
+	 * @throws IllegalArgumentException if the device cannot produce an event
+	 */
+	public void validate(InputDevice device) {
+		for (int t = 1; t < EventCode.Ev.EV_CNT; t++) {
+			if ((types & (1L << t)) == 0)
+				continue;
+			if (!device.hasCapability(t)) {
+				throw new IllegalArgumentException(
+						String.format("Device %s does not support event type %d.", device.getName(), t));
+			}
+			long[] c = codes[t];
+			if (c != null) {
+				for (int i = 0; i < c.length * 64; i++) {
+					if (Bits.test(c, i) && !device.hasCapability(t, i)) {
+						throw new IllegalArgumentException(String.format(
+								"Device %s does not support event code %d for type %d.", device.getName(), i, t));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge another filter into this one, so this one accepts everything either
+	 * filter does.
+	 *
+	 * @param other other filter
+	 * @return this for chaining
+	 */
+	public EventFilter merge(EventFilter other) {
+		for (int t = 0; t < EventCode.Ev.EV_CNT; t++) {
+			if ((other.types & (1L << t)) == 0)
+				continue;
+			if (other.codes[t] == null) {
+				types |= 1L << t;
+				codes[t] = null;
+			} else if ((types & (1L << t)) == 0 || codes[t] != null) {
+				if (codes[t] == null)
+					codes[t] = new long[other.codes[t].length];
+				for (int i = 0; i < codes[t].length; i++)
+					codes[t][i] |= other.codes[t][i];
+				types |= 1L << t;
+			}
+		}
+		if (values != null) {
+			/* Accept any value either filter accepts */
+			for (int t = 0; t < EventCode.Ev.EV_CNT; t++) {
+				int[] range = values[t];
+				if (range == null || (other.types & (1L << t)) == 0)
+					continue;
+				int[] otherRange = other.values == null ? null : other.values[t];
+				if (otherRange == null)
+					values[t] = null;
+				else
+					values[t] = new int[] { Math.min(range[0], otherRange[0]), Math.max(range[1], otherRange[1]) };
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Write the kernel mask for a type. Type 0 is the mask of types, as used by
+	 * <code>EVIOCSMASK</code>.
+	 *
+	 * @param type type
+	 * @param ptr  memory of at least {@link Bits#nativeBytes(int)} bytes for the
+	 *             number of codes of the type
+	 * @param bits number of codes of the type
+	 */
+	void toNative(int type, Pointer ptr, int bits) {
+		long[] words;
+		if (type == EventCode.Ev.EV_SYN)
+			words = new long[] { types };
+		else if ((types & (1L << type)) == 0)
+			words = new long[Bits.words(bits)];
+		else if (codes[type] == null)
+			words = all(bits);
+		else
+			words = codes[type];
+		Bits.toNative(words, ptr, bits);
+	}
+
+	static long[] all(int bits) {
+		long[] words = new long[Bits.words(bits)];
+		for (int i = 0; i < bits; i++)
+			Bits.set(words, i, true);
+		return words;
+	}
+
+	private static void checkType(int type) {
+		if (type <= EventCode.Ev.EV_SYN || type >= EventCode.Ev.EV_CNT)
+			throw new IllegalArgumentException(String.format("Cannot filter on event type %d.", type));
+	}
+
+	/**
+	 * To string.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("EventFilter [");
+		boolean first = true;
+		for (int t = 1; t < EventCode.Ev.EV_CNT; t++) {
+			if ((types & (1L << t)) == 0)
+				continue;
+			if (!first)
+				b.append(", ");
+			first = false;
+			b.append(Type.fromCode(t));
+			if (codes[t] != null) {
+				b.append(":");
+				for (int i = 0; i < codes[t].length * 64; i++) {
+					if (Bits.test(codes[t], i))
+						b.append(' ').append(i);
+				}
+			}
+			if (values != null && values[t] != null)
+				b.append(" [").append(values[t][0]).append("..").append(values[t][1]).append(']');
+		}
+		return b.append("]").toString();
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.util.Arrays;
+
+/**
+ * A group of events that were reported by the kernel together, i.e. all the
+ * events up to and including a <code>SYN_REPORT</code>. The
+ * <code>SYN_REPORT</code> itself is not included in the frame, but its time is
+ * used as the time of the frame.
+ * <p>
+ * Frames are pooled, so the same instance is handed over for every frame from
+ * a device. If you need to keep hold of the contents of a frame after the
+ * callback returns, take a {@link #copy()}.
+ */
+public class EventFrame {
+
+	private final static int INITIAL_CAPACITY = 16;
+
+	private int[] types = new int[INITIAL_CAPACITY];
+	private int[] codes = new int[INITIAL_CAPACITY];
+	private int[] values = new int[INITIAL_CAPACITY];
+	private int size;
+	private boolean complete;
+	private long sec;
+	private long usec;
+
+	/**
+	 * Get the number of events in this frame.
+	 *
+	 * @return number of events
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the type of the event at the given index.
+	 *
+	 * @param index index
+	 * @return event type
+	 */
+	public int getType(int index) {
+		checkIndex(index);
+		return types[index];
+	}
+
+	/**
+	 * Get the code of the event at the given index.
+	 *
+	 * @param index index
+	 * @return event code
+	 */
+	public int getCode(int index) {
+		checkIndex(index);
+		return codes[index];
+	}
+
+	/**
+	 * Get the value of the event at the given index.
+	 *
+	 * @param index index
+	 * @return event value
+	 */
+	public int getValue(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * Get the index of the last event in this frame with the given type and code,
+	 * or -1 if there is no such event.
+	 *
+	 * @param type type
+	 * @param code code
+	 * @return index or -1
+	 */
+	public int indexOf(int type, int code) {
+		for (int i = size - 1; i >= 0; i--) {
+			if (codes[i] == code && types[i] == type)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the value of the last event in this frame with the given type and code,
+	 * or a default value if there is no such event.
+	 *
+	 * @param type         type
+	 * @param code         code
+	 * @param defaultValue value to return if there is no such event
+	 * @return value
+	 */
+	public int getValue(int type, int code, int defaultValue) {
+		int idx = indexOf(type, code);
+		return idx == -1 ? defaultValue : values[idx];
+	}
+
+	/**
+	 * Get the seconds part of the time of the <code>SYN_REPORT</code> that ended
+	 * this frame.
+	 *
+	 * @return seconds
+	 */
+	public long getSec() {
+		return sec;
+	}
+
+	/**
+	 * Get the microseconds part of the time of the <code>SYN_REPORT</code> that
+	 * ended this frame.
+	 *
+	 * @return microseconds
+	 */
+	public long getUSec() {
+		return usec;
+	}
+
+	/**
+	 * Take a copy of this frame that will not be re-used.
+	 *
+	 * @return copy
+	 */
+	public EventFrame copy() {
+		EventFrame f = new EventFrame();
+		f.types = Arrays.copyOf(types, Math.max(size, 1));
+		f.codes = Arrays.copyOf(codes, Math.max(size, 1));
+		f.values = Arrays.copyOf(values, Math.max(size, 1));
+		f.size = size;
+		f.sec = sec;
+		f.usec = usec;
+		f.complete = complete;
+		return f;
+	}
+
+	/**
+	 * Add the next event read from the device. When this is the
+	 * <code>SYN_REPORT</code> that completes the frame, <code>true</code> is
+	 * returned and the frame is ready to be handed over. The next event added
+	 * will then start a new frame. A <code>SYN_DROPPED</code> discards the partial
+	 * frame.
+	 *
+	 * @param type  type
+	 * @param code  code
+	 * @param value value
+	 * @param sec   seconds part of event time
+	 * @param usec  microseconds part of event time
+	 * @return frame is complete
+	 */
+	boolean add(int type, int code, int value, long sec, long usec) {
+		if (complete) {
+			clear();
+		}
+		if (type == EventCode.Ev.EV_SYN) {
+			if (code == EventCode.SYN_REPORT.code()) {
+				this.sec = sec;
+				this.usec = usec;
+				complete = true;
+				return true;
+			} else if (code == EventCode.SYN_DROPPED.code()) {
+				/* The kernel dropped events, so this frame is incomplete */
+				clear();
+				return false;
+			}
+		}
+		if (size == types.length) {
+			int cap = size * 2;
+			types = Arrays.copyOf(types, cap);
+			codes = Arrays.copyOf(codes, cap);
+			values = Arrays.copyOf(values, cap);
+		}
+		types[size] = type;
+		codes[size] = code;
+		values[size] = value;
+		size++;
+		return false;
+	}
+
+	/**
+	 * Discard all events in this frame.
+	 */
+	void clear() {
+		size = 0;
+		complete = false;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + " out of range for frame of " + size + " events.");
+	}
+
+	/**
+	 * To string.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("EventFrame [time=");
+		b.append(sec).append('.').append(String.format("%06d", usec)).append(", events=[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				b.append(", ");
+			EventCode.Type t = EventCode.Type.fromCode(types[i]);
+			if (EventCode.hasCode(t, (short) codes[i]))
+				b.append(EventCode.fromCode(t, codes[i]));
+			else
+				b.append(types[i]).append(':').append(codes[i]);
+			b.append('=').append(values[i]);
+		}
+		return b.append("]]").toString();
+	}
+}
@@ -150,6 +150,26 @@ public class Input {
 		}
 	};
 
+	/**
+	 * The Class input_mask.
+	 */
+	public static class input_mask extends Structure {
+
+		/** The type. */
+		public int type;
+
+		/** The codes size. */
+		public int codes_size;
+
+		/** The codes ptr. */
+		public long codes_ptr;
+
+		@Override
+		protected List<String> getFieldOrder() {
+			return Arrays.asList("type", "codes_size", "codes_ptr");
+		}
+	};
+
 	/**
 	 * The Class input_keymap_entry.
 	 */
@@ -437,6 +457,12 @@ public class Input {
 		/** The Constant EVIOCSKEYCODE_V2. */
 		public final static int EVIOCSKEYCODE_V2 = Ioctl.INSTANCE.IOW('E', 0x04, new input_keymap_entry());
 
+		/** The Constant EVIOCSMASK. */
+		public final static int EVIOCSMASK = Ioctl.INSTANCE.IOW('E', 0x93, new input_mask()); /* set event-masks */
+
+		/** The Constant EVIOCSCLOCKID. */
+		public final static int EVIOCSCLOCKID = Ioctl.INSTANCE.IOW('E', 0xa0, int.class); /* Set clockid to be used for timestamps */
+
 		/**
 		 * Eviocgname.
 		 *
@@ -477,6 +503,56 @@ public class Input {
 			return Ioctl.INSTANCE.IOC("R", 'E', 0x09, len); /* get device properties */
 		}	
 		
+		/**
+		 * Eviocgmtslots.
+		 *
+		 * @param len the len
+		 * @return the int
+		 */
+		public static int EVIOCGMTSLOTS(int len) {
+			return Ioctl.INSTANCE.IOC("R", 'E', 0x0a, len); /* get multi-touch slot values */
+		}
+
+		/**
+		 * Eviocgkey.
+		 *
+		 * @param len the len
+		 * @return the int
+		 */
+		public static int EVIOCGKEY(int len) {
+			return Ioctl.INSTANCE.IOC("R", 'E', 0x18, len); /* get global key state */
+		}
+
+		/**
+		 * Eviocgled.
+		 *
+		 * @param len the len
+		 * @return the int
+		 */
+		public static int EVIOCGLED(int len) {
+			return Ioctl.INSTANCE.IOC("R", 'E', 0x19, len); /* get all LEDs */
+		}
+
+		/**
+		 * Eviocgsnd.
+		 *
+		 * @param len the len
+		 * @return the int
+		 */
+		public static int EVIOCGSND(int len) {
+			return Ioctl.INSTANCE.IOC("R", 'E', 0x1a, len); /* get all sounds status */
+		}
+
+		/**
+		 * Eviocgsw.
+		 *
+		 * @param len the len
+		 * @return the int
+		 */
+		public static int EVIOCGSW(int len) {
+			return Ioctl.INSTANCE.IOC("R", 'E', 0x1b, len); /* get all switch states */
+		}
+
 		/**
 		 * Eviocgbit.
 		 *
@@ -21,12 +21,28 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
 
-import uk.co.bithatch.linuxio.CLib.pollfd;
 import uk.co.bithatch.linuxio.InputDevice.Event;
 
 /**
@@ -36,14 +52,69 @@ import uk.co.bithatch.linuxio.InputDevice.Event;
  * {@link #getInstance()}. Then {@link InputDevice} instances are then
  * registered using {@link #add(InputDevice, Callback)}. The callback argument
  * will have it's {@link Callback#event(InputDevice, Event)} method invoked
- * whenever events from that device are received.
+ * whenever events from that device are received. Alternatively, a
+ * {@link RawCallback} may be used to receive events as primitives, or a
+ * {@link FrameCallback} added using {@link #addFrames(InputDevice, FrameCallback)}
+ * to receive all events reported together up to each <code>SYN_REPORT</code>
+ * as a single {@link EventFrame}.
+ * <p>
+ * A device may have any number of subscribers, each added using one of the
+ * <code>subscribe()</code> or <code>subscribeFrames()</code> methods with an
+ * {@link EventFilter} declaring the events it wants. Subscriptions are indexed
+ * by event type and code, so each event is only passed to the subscribers that
+ * want it. The kernel is asked for only the events wanted by at least one
+ * subscriber.
+ * <p>
+ * High rate pointers, such as 8kHz mice, may produce far more motion than is
+ * useful. {@link #setMotionCoalescing(MotionCoalescing)} sums their relative
+ * motion on the polling thread, so callbacks receive one motion frame per
+ * window, per number of frames, or per call to
+ * {@link #flushMotion(InputDevice)}, while keys and buttons still arrive
+ * immediately.
+ * <p>
+ * Events may also be consumed as a reactive stream, using
+ * {@link #publisher(InputDevice)}, {@link #framePublisher(InputDevice)}, or
+ * {@link #publisher()} for the events of every registered device. These honour
+ * the demand of each {@link Flow.Subscriber}, buffering at most
+ * {@link #getQueueCapacity()} items for each one.
  * <p>
  * When {@link #add(InputDevice, Callback)} is used for the first time, a
  * thread is started to handle the polling. The same thread is then used for
  * subsequent devices.
  * <p>
  * Devices may be de-registered using {@link #remove(InputDevice)}. When the
- * last device is removed, the polling thread is also shutdown.
+ * last device is removed, the polling thread is also shutdown. Adding and
+ * removing devices never waits for the polling thread, which is woken
+ * immediately to pick up the change, and otherwise sleeps until there are
+ * events.
+ * <p>
+ * By default a single polling thread handles every device. For many devices,
+ * or devices that produce events at a high rate, {@link #setReactors(int)}
+ * spreads them over several polling threads (reactors), each with its own set
+ * of devices, so a flood of events from one device cannot delay events from
+ * devices on other reactors. Which reactor a device is handled by is decided
+ * by a {@link ReactorStrategy}, unless it has been pinned to one using
+ * {@link #pin(InputDevice, int)}.
+ * <p>
+ * Callbacks are normally invoked on the polling thread, so a slow callback
+ * delays the reading of every device on that thread. If
+ * {@link #setDispatchExecutor(Executor)} is used, events are instead placed on
+ * a bounded queue per subscription, and callbacks are invoked by the executor,
+ * in order for each subscription. What happens when a queue fills up is decided by the
+ * {@link OverflowPolicy}. On Java 21 and later,
+ * {@link #setVirtualThreadDispatch(boolean)} instead invokes callbacks on
+ * virtual threads, so callbacks may block (for example, on file or socket
+ * I/O) without holding up other devices or tying up platform threads.
+ * <p>
+ * Each time the polling thread wakes up, it reads everything queued by the
+ * kernel for each ready device, up to {@link #getMaxEventsPerWakeup()} events
+ * so that one busy device cannot starve the others.
+ * <p>
+ * The polling thread uses epoll where available, so the cost of each wake-up
+ * depends only on the number of devices that have events, not on the number
+ * of devices registered. Plain poll may be selected instead using
+ * {@link #setBackend(Backend)}, or by setting the system property
+ * <b>linuxio.input.backend</b> to <code>POLL</code>.
  *
  */
 public class InputController {
@@ -64,10 +135,186 @@ public class InputController {
 		void event(InputDevice device, Event event);
 	}
 
-	private Map<InputDevice, Callback> devices = new HashMap<InputDevice, InputController.Callback>();
-	private Map<Integer, InputDevice> devicesByFd = new HashMap<Integer, InputDevice>();
-	private pollfd[] pollFds;
-	private Semaphore semaphore = new Semaphore(1);
+	/**
+	 * A callback that receives events as primitives rather than as {@link Event}
+	 * objects, so the polling thread allocates nothing per event.
+	 */
+	public interface RawCallback {
+
+		/**
+		 * Event.
+		 *
+		 * @param device the device
+		 * @param type   the event type
+		 * @param code   the event code
+		 * @param value  the value
+		 * @param sec    seconds part of the event time
+		 * @param usec   microseconds part of the event time
+		 */
+		void event(InputDevice device, int type, int code, int value, long sec, long usec);
+	}
+
+	/**
+	 * A callback that receives complete frames of events, i.e. all the events
+	 * reported together up to a <code>SYN_REPORT</code>.
+	 */
+	public interface FrameCallback {
+
+		/**
+		 * Frame. The frame instance is re-used for every frame from this device, so
+		 * must be copied if it is needed after this method returns.
+		 *
+		 * @param device the device
+		 * @param frame  the frame
+		 */
+		void frame(InputDevice device, EventFrame frame);
+	}
+
+	/**
+	 * An event, along with the device it came from, as published by
+	 * {@link InputController#publisher()}.
+	 */
+	public final static class DeviceEvent {
+		private final InputDevice device;
+		private final Event event;
+
+		DeviceEvent(InputDevice device, Event event) {
+			this.device = device;
+			this.event = event;
+		}
+
+		/**
+		 * Get the device the event came from.
+		 *
+		 * @return device
+		 */
+		public InputDevice getDevice() {
+			return device;
+		}
+
+		/**
+		 * Get the event.
+		 *
+		 * @return event
+		 */
+		public Event getEvent() {
+			return event;
+		}
+
+		/**
+		 * To string.
+		 *
+		 * @return the string
+		 */
+		@Override
+		public String toString() {
+			return "DeviceEvent [device=" + device.getFile() + ", event=" + event + "]";
+		}
+	}
+
+	/**
+	 * Decides which reactor (polling thread) handles a device, when there is more
+	 * than one. See {@link InputController#setReactors(int)}.
+	 */
+	public interface ReactorStrategy {
+
+		/**
+		 * Get the reactor a device should be handled by.
+		 *
+		 * @param device   device
+		 * @param reactors number of reactors
+		 * @return reactor index, from zero to <code>reactors - 1</code>
+		 */
+		int reactor(InputDevice device, int reactors);
+
+		/**
+		 * Assign each device to the next reactor in turn.
+		 *
+		 * @return strategy
+		 */
+		static ReactorStrategy roundRobin() {
+			AtomicInteger next = new AtomicInteger();
+			return (device, reactors) -> Math.floorMod(next.getAndIncrement(), reactors);
+		}
+
+		/**
+		 * Assign devices to reactors by the kind of device they appear to be, so for
+		 * example touchscreens and keyboards are handled by different reactors
+		 * (given enough reactors).
+		 *
+		 * @return strategy
+		 */
+		static ReactorStrategy byDeviceClass() {
+			return (device, reactors) -> deviceClass(device) % reactors;
+		}
+	}
+
+	/**
+	 * The mechanism used by the polling thread to wait for events.
+	 */
+	public enum Backend {
+		/**
+		 * epoll, where devices are registered with the kernel once and only those
+		 * with events are returned on each wake-up.
+		 */
+		EPOLL,
+		/**
+		 * poll, where every device is passed to the kernel on each wait and checked
+		 * for events on each wake-up.
+		 */
+		POLL
+	}
+
+	/**
+	 * What to do when a subscription's dispatch queue is full, because its callback
+	 * cannot keep up. See {@link InputController#setDispatchExecutor(Executor)}.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The polling thread waits until there is space. Nothing is lost, but other
+		 * devices on the same polling thread are delayed, and the kernel may drop
+		 * events instead.
+		 */
+		BLOCK,
+		/**
+		 * The oldest queued events are discarded to make space.
+		 */
+		DROP_OLDEST,
+		/**
+		 * The new event is discarded.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Events that do not fit are merged until there is space. Relative motion
+		 * is summed, absolute axes keep their latest value, and keys, buttons and
+		 * other events are kept in order.
+		 */
+		COALESCE
+	}
+
+	/** The default capacity of a subscription's dispatch queue. */
+	public final static int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/** The default maximum number of events read from a device per wake-up. */
+	public final static int DEFAULT_MAX_EVENTS_PER_WAKEUP = InputDevice.DEFAULT_MAX_EVENTS * 4;
+
+	private Map<InputDevice, Registration> devices = new HashMap<InputDevice, Registration>();
+	/* Keyed by device file, so replacing a device neither leaks nor loses its pin */
+	private final Map<Path, Integer> pins = new HashMap<>();
+	private Reactor[] reactors = new Reactor[] { new Reactor(0, 1) };
+	private ReactorStrategy reactorStrategy = ReactorStrategy.roundRobin();
+	private Backend backend = defaultBackend();
+	private Executor dispatchExecutor;
+	private Executor virtualExecutor;
+	private volatile SubmissionPublisher<DeviceEvent> allEvents;
+	private MotionCoalescing motionCoalescing;
+	private volatile int maxEventsPerWakeup = DEFAULT_MAX_EVENTS_PER_WAKEUP;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private int schedulingPolicy = CLib.SCHED_OTHER;
+	private int schedulingPriority;
+	private int[] cpuAffinity;
+	private boolean lockMemory;
 
 	private final static InputController INSTANCE = new InputController();
 
@@ -80,148 +327,1572 @@ public class InputController {
 		return INSTANCE;
 	}
 
+	private static Backend defaultBackend() {
+		String name = System.getProperty("linuxio.input.backend", Backend.EPOLL.name());
+		try {
+			return Backend.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			/* Must not stop the class loading */
+			LOG.log(Level.WARNING, String.format("Unknown input backend '%s', using %s.", name, Backend.EPOLL));
+			return Backend.EPOLL;
+		}
+	}
+
 	/**
-	 * Remove a device. The callback registered will no longer receive events, and
-	 * if this is the last device being removed, the polling thread will be
-	 * shutdown.
-	 * 
-	 * @param device device to remove.
+	 * Get the mechanism used to wait for events.
+	 *
+	 * @return backend
 	 */
-	public void remove(InputDevice device) {
-		try {
-			synchronized (devices) {
-				if (!devices.containsKey(device)) {
-					throw new IllegalArgumentException("No such device.");
-				}
+	public Backend getBackend() {
+		return backend;
+	}
 
-				if (LOG.isLoggable(Level.DEBUG))
-					LOG.log(Level.DEBUG, "Removing device " + device + " from UInput polling");
+	/**
+	 * Set the mechanism used to wait for events. This takes effect the next time
+	 * the polling thread is started. If {@link Backend#EPOLL} is not available,
+	 * {@link Backend#POLL} is used instead.
+	 *
+	 * @param backend backend
+	 */
+	public void setBackend(Backend backend) {
+		if (backend == null)
+			throw new IllegalArgumentException("Backend may not be null.");
+		this.backend = backend;
+	}
 
-				if (devices.size() == 1) {
-					// We will be closing
-					semaphore.acquire();
-				}
+	/**
+	 * Get the number of reactors (polling threads) devices are spread over.
+	 *
+	 * @return reactors
+	 */
+	public int getReactors() {
+		synchronized (devices) {
+			return reactors.length;
+		}
+	}
+
+	/**
+	 * Set the number of reactors (polling threads) devices are spread over. Each
+	 * reactor waits for and reads events from its own devices only. This may
+	 * only be changed while no devices are registered.
+	 *
+	 * @param reactors number of reactors
+	 */
+	public void setReactors(int reactors) {
+		if (reactors < 1)
+			throw new IllegalArgumentException("There must be at least one reactor.");
+		synchronized (devices) {
+			if (!devices.isEmpty())
+				throw new IllegalStateException("Reactors cannot be changed while devices are registered.");
+			Reactor[] r = new Reactor[reactors];
+			for (int i = 0; i < reactors; i++)
+				r[i] = new Reactor(i, reactors);
+			this.reactors = r;
+		}
+	}
+
+	/**
+	 * Get the maximum number of events read from one device each time the
+	 * polling thread wakes up.
+	 *
+	 * @return maximum events per wake-up
+	 */
+	public int getMaxEventsPerWakeup() {
+		return maxEventsPerWakeup;
+	}
 
-				devicesByFd.remove(device.getFD());
-				devices.remove(device);
+	/**
+	 * Set the maximum number of events read from one device each time the
+	 * polling thread wakes up. Each ready device is read until the kernel has
+	 * nothing more queued for it, or this many events have been read, before
+	 * moving on to the next ready device. Anything left is read on the next
+	 * wake-up, which happens straight away, so a device producing a flood of
+	 * events cannot delay the others on the same polling thread for long.
+	 *
+	 * @param maxEventsPerWakeup maximum events per wake-up
+	 */
+	public void setMaxEventsPerWakeup(int maxEventsPerWakeup) {
+		if (maxEventsPerWakeup < 1)
+			throw new IllegalArgumentException("Must read at least one event per wake-up.");
+		this.maxEventsPerWakeup = maxEventsPerWakeup;
+	}
 
-				if (devices.isEmpty()) {
-					// Wait for the first acquire to be released indicating
-					// thread
-					// is now gone
-					semaphore.acquire();
+	/**
+	 * Get the scheduling policy of the polling threads, one of
+	 * {@link CLib#SCHED_OTHER}, {@link CLib#SCHED_FIFO} or {@link CLib#SCHED_RR}.
+	 *
+	 * @return scheduling policy
+	 */
+	public int getSchedulingPolicy() {
+		return schedulingPolicy;
+	}
 
-					// Release out own acquire
-					semaphore.release();
-				}
-			}
-		} catch (Exception e) {
-			throw new RuntimeException("Failed to remove UInput device from polling.");
+	/**
+	 * Get the real-time priority of the polling threads. Only used with
+	 * {@link CLib#SCHED_FIFO} or {@link CLib#SCHED_RR}.
+	 *
+	 * @return scheduling priority
+	 */
+	public int getSchedulingPriority() {
+		return schedulingPriority;
+	}
+
+	/**
+	 * Set the scheduling policy and priority of the polling threads. With
+	 * {@link CLib#SCHED_FIFO} or {@link CLib#SCHED_RR}, the polling threads are
+	 * run ahead of all normal threads whenever events arrive, so latency does not
+	 * suffer when the system is busy. This needs <code>CAP_SYS_NICE</code> or a
+	 * suitable <code>RLIMIT_RTPRIO</code>, otherwise a warning is logged and the
+	 * threads run with the default policy.
+	 * <p>
+	 * This takes effect the next time a polling thread is started.
+	 *
+	 * @param policy   one of {@link CLib#SCHED_OTHER}, {@link CLib#SCHED_FIFO} or
+	 *                 {@link CLib#SCHED_RR}
+	 * @param priority real-time priority, ignored for {@link CLib#SCHED_OTHER}
+	 */
+	public void setScheduling(int policy, int priority) {
+		if (policy == CLib.SCHED_OTHER) {
+			priority = 0;
+		} else if (policy == CLib.SCHED_FIFO || policy == CLib.SCHED_RR) {
+			int min = CLib.INSTANCE.sched_get_priority_min(policy);
+			int max = CLib.INSTANCE.sched_get_priority_max(policy);
+			if (priority < min || priority > max)
+				throw new IllegalArgumentException(
+						String.format("Priority %d is out of range, must be between %d and %d.", priority, min, max));
+		} else
+			throw new IllegalArgumentException(String.format("Unsupported scheduling policy %d.", policy));
+		synchronized (devices) {
+			schedulingPolicy = policy;
+			schedulingPriority = priority;
 		}
+	}
 
-		if (LOG.isLoggable(Level.DEBUG))
-			LOG.log(Level.DEBUG, "Removed device " + device + " from UInput polling");
+	/**
+	 * Get the CPUs the polling threads are pinned to.
+	 *
+	 * @return CPUs, or <code>null</code> if not pinned
+	 */
+	public int[] getCpuAffinity() {
+		synchronized (devices) {
+			return cpuAffinity == null ? null : cpuAffinity.clone();
+		}
 	}
 
 	/**
-	 * Add a new device to be monitored for events, calling the
-	 * {@link Callback#event(InputDevice, Event)} method of the provided callback.
+	 * Pin the polling threads to the given CPUs, so they stay cache-warm and
+	 * can be kept away from other work (for example with CPUs isolated using
+	 * <code>isolcpus</code>). With a single reactor, its thread may run on any
+	 * of the CPUs. With several reactors, each is pinned to just one of them,
+	 * taken in turn. If the affinity cannot be set, a warning is logged.
 	 * <p>
-	 * If this is the first device to be added, the polling thread will also be
-	 * started.
-	 * 
-	 * @param device   device to monitor
-	 * @param callback callback invoked when event arrives for this device
+	 * This takes effect the next time a polling thread is started.
+	 *
+	 * @param cpus CPU numbers, or none to not pin at all
 	 */
-	public void add(InputDevice device, Callback callback) {
+	public void setCpuAffinity(int... cpus) {
+		if (cpus != null) {
+			for (int cpu : cpus) {
+				if (cpu < 0)
+					throw new IllegalArgumentException(String.format("Invalid CPU %d.", cpu));
+			}
+		}
 		synchronized (devices) {
-			devices.put(device, callback);
-			devicesByFd.put(device.getFD(), device);
-			if (devices.size() == 1) {
-				if (LOG.isLoggable(Level.DEBUG))
-					LOG.log(Level.DEBUG, "Starting UInput polling");
-				Thread t = new Thread("UInput") {
-					public void run() {
-						try {
-							poll();
-						} catch (IOException e) {
-							LOG.log(Level.ERROR, "Failed to poll.", e);
-						}
-					}
-				};
-				t.setPriority(Thread.MAX_PRIORITY);
-//				t.setDaemon(true);
-				t.start();
+			cpuAffinity = cpus == null || cpus.length == 0 ? null : cpus.clone();
+		}
+	}
+
+	/**
+	 * Get whether all memory of the process is locked into RAM when a polling
+	 * thread is started.
+	 *
+	 * @return lock memory
+	 */
+	public boolean isLockMemory() {
+		return lockMemory;
+	}
+
+	/**
+	 * Set whether all memory of the process, current and future, is locked into
+	 * RAM (using <code>mlockall</code>) when a polling thread is started, so
+	 * event handling never waits on a page fault. This affects the whole
+	 * process, not just the polling threads, and needs
+	 * <code>CAP_IPC_LOCK</code> or a large enough
+	 * <code>RLIMIT_MEMLOCK</code>, otherwise a warning is logged.
+	 *
+	 * @param lockMemory lock memory
+	 */
+	public void setLockMemory(boolean lockMemory) {
+		synchronized (devices) {
+			this.lockMemory = lockMemory;
+		}
+	}
+
+	/**
+	 * Get the strategy used to decide which reactor handles each device.
+	 *
+	 * @return strategy
+	 */
+	public ReactorStrategy getReactorStrategy() {
+		return reactorStrategy;
+	}
+
+	/**
+	 * Set the strategy used to decide which reactor handles each device. This
+	 * applies to devices added after it is set. The default is
+	 * {@link ReactorStrategy#roundRobin()}.
+	 *
+	 * @param reactorStrategy strategy
+	 */
+	public void setReactorStrategy(ReactorStrategy reactorStrategy) {
+		if (reactorStrategy == null)
+			throw new IllegalArgumentException("Reactor strategy may not be null.");
+		this.reactorStrategy = reactorStrategy;
+	}
+
+	/**
+	 * Pin a device to a particular reactor, regardless of the
+	 * {@link ReactorStrategy}. This applies the next time the device is added.
+	 * The pin belongs to the device file, so also applies to any other device
+	 * opened from the same file, e.g. after it has been unplugged and plugged in
+	 * again.
+	 *
+	 * @param device  device
+	 * @param reactor reactor index, or -1 to remove the pin
+	 */
+	public void pin(InputDevice device, int reactor) {
+		Path file = pinKey(device);
+		synchronized (devices) {
+			if (reactor == -1)
+				pins.remove(file);
+			else
+				pins.put(file, reactor);
+		}
+	}
+
+	private static Path pinKey(InputDevice device) {
+		if (device.getFile() == null)
+			throw new IllegalArgumentException("Only devices with a file may be pinned.");
+		return device.getFile().toAbsolutePath();
+	}
+
+	/**
+	 * Get the index of the reactor handling a device.
+	 *
+	 * @param device device
+	 * @return reactor index
+	 * @throws IllegalArgumentException if the device is not registered
+	 */
+	public int getReactor(InputDevice device) {
+		return getRegistration(device).reactor.index;
+	}
+
+	/**
+	 * Get the executor callbacks are invoked on, or <code>null</code> if they are
+	 * invoked directly by the polling thread.
+	 *
+	 * @return executor
+	 */
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	/**
+	 * Set the executor callbacks are invoked on. When set, each subscription
+	 * made afterwards gets its own bounded queue, which the polling thread places
+	 * events on without waiting for callbacks, and the executor takes them from.
+	 * Each subscription's events are delivered in order, by one task at a time. When
+	 * <code>null</code> (the default), callbacks are invoked directly by the
+	 * polling thread.
+	 *
+	 * @param dispatchExecutor executor, or <code>null</code> to invoke callbacks
+	 *                         on the polling thread
+	 */
+	public void setDispatchExecutor(Executor dispatchExecutor) {
+		this.dispatchExecutor = dispatchExecutor;
+	}
+
+	/**
+	 * Get whether virtual threads are available to invoke callbacks on, i.e.
+	 * whether this is Java 21 or later.
+	 *
+	 * @return available
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+		return VirtualThreads.isAvailable();
+	}
+
+	/**
+	 * Get whether callbacks are invoked on virtual threads.
+	 *
+	 * @return virtual thread dispatch
+	 */
+	public boolean isVirtualThreadDispatch() {
+		synchronized (devices) {
+			return virtualExecutor != null && dispatchExecutor == virtualExecutor;
+		}
+	}
+
+	/**
+	 * Set whether callbacks are invoked on virtual threads, for subscriptions
+	 * made afterwards. This is the same as using
+	 * {@link #setDispatchExecutor(Executor)} with an executor that starts a new
+	 * virtual thread for each task, so each subscription still gets its own
+	 * bounded queue, and its events are still delivered in order. As callbacks
+	 * for different subscriptions run on different virtual threads, a callback
+	 * that blocks only holds up its own subscription.
+	 *
+	 * @param virtualThreadDispatch invoke callbacks on virtual threads
+	 * @throws UnsupportedOperationException if virtual threads are not available
+	 */
+	public void setVirtualThreadDispatch(boolean virtualThreadDispatch) {
+		synchronized (devices) {
+			if (virtualThreadDispatch) {
+				if (virtualExecutor == null)
+					virtualExecutor = VirtualThreads.newExecutor("UInput-dispatch");
+				dispatchExecutor = virtualExecutor;
+			} else if (virtualExecutor != null && dispatchExecutor == virtualExecutor) {
+				dispatchExecutor = null;
 			}
-			if (LOG.isLoggable(Level.DEBUG))
-				LOG.log(Level.DEBUG, "Added " + device + " to polling");
 		}
 	}
 
-	private void poll() throws IOException {
-		try {
-			while (devices.size() > 0) {
-				if (pollFds == null || pollFds.length != devices.size()) {
-					synchronized (devices) {
-						pollFds = (CLib.pollfd[]) new CLib.pollfd().toArray(devices.size());
-						int i = 0;
-						for (InputDevice dev : devices.keySet()) {
-							// pollfd pfd = new CLib.pollfd();
-							pollfd pfd = pollFds[i];
-							pfd.fd = dev.getFD();
-							pfd.events = CLib.POLLIN | CLib.POLLPRI;
-							pollFds[i] = pfd;
-							i++;
-						}
+	/**
+	 * Get the capacity of the dispatch queue given to each subscription.
+	 *
+	 * @return capacity
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
 
-					}
-				}
+	/**
+	 * Set the capacity of the dispatch queue given to each subscription made
+	 * afterwards, rounded up to a power of two. Only used when there is a
+	 * dispatch executor.
+	 *
+	 * @param queueCapacity capacity in events
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 2)
+			throw new IllegalArgumentException("Queue capacity must be at least 2.");
+		this.queueCapacity = queueCapacity;
+	}
 
-				int rel = CLib.INSTANCE.poll(pollFds, pollFds.length, 1000);
-				if (rel == 0) {
-					// Timeout, no data, just loop
-					if (LOG.isLoggable(Level.TRACE)) {
-						LOG.log(Level.TRACE, "No data, waiting");
-					}
-				} else if (rel < 0) {
-					// Error!
-					throw new RuntimeException("Poll returned " + rel);
-				} else {
-					// Success, have data, get the events
-					for (pollfd pfd : pollFds) {
-						if (pfd.revents != 0) {
-							InputDevice dev = devicesByFd.get(pfd.fd);
-							if (dev == null) {
-								LOG.log(Level.WARNING, "Could not find device for FD " + pfd.fd);
-							} else {
-								try {
-									Event event = dev.nextEvent();
-									if (event != null) {
-										devices.get(dev).event(dev, event);
-									}
-								} catch (EOFException eof) {
-									//
-								} catch(IllegalArgumentException iae) {
-									LOG.log(Level.WARNING, "Failed to process key.", iae);
-								}
-							}
-						}
-					}
-				}
+	/**
+	 * Get what happens when a subscription's dispatch queue is full.
+	 *
+	 * @return overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Set what happens when a subscription's dispatch queue is full, for
+	 * subscriptions made afterwards. The default is {@link OverflowPolicy#DROP_OLDEST}. Whenever
+	 * events are discarded, a <code>SYN_DROPPED</code> is delivered in their
+	 * place.
+	 *
+	 * @param overflowPolicy overflow policy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null)
+			throw new IllegalArgumentException("Overflow policy may not be null.");
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Get how relative motion is merged, or <code>null</code> if it is not.
+	 *
+	 * @return motion coalescing
+	 */
+	public MotionCoalescing getMotionCoalescing() {
+		return motionCoalescing;
+	}
+
+	/**
+	 * Set how relative motion is merged for devices added afterwards that have
+	 * relative axes. By default (<code>null</code>), every motion event is
+	 * delivered as it is read.
+	 *
+	 * @param motionCoalescing motion coalescing, or <code>null</code> to deliver
+	 *                         all motion
+	 */
+	public void setMotionCoalescing(MotionCoalescing motionCoalescing) {
+		this.motionCoalescing = motionCoalescing;
+	}
+
+	/**
+	 * Deliver any relative motion being held for a device, as soon as the frame
+	 * currently being read (if any) is complete. This is the explicit flush point
+	 * for {@link MotionCoalescing}, for example called once per rendered frame.
+	 *
+	 * @param device device
+	 * @throws IllegalArgumentException if the device is not registered
+	 */
+	public void flushMotion(InputDevice device) {
+		synchronized (devices) {
+			Registration registration = getRegistration(device);
+			if (registration.coalescer != null) {
+				registration.coalescer.requestFlush();
+				registration.reactor.wake();
 			}
-		} finally {
-			semaphore.release();
-			if (LOG.isLoggable(Level.DEBUG))
-				LOG.log(Level.DEBUG, "No long polling for UInput events");
 		}
 	}
 
 	/**
-	 * Stop.
+	 * Get the number of events waiting in the dispatch queues of a device's
+	 * subscriptions.
+	 *
+	 * @param device device
+	 * @return queue depth, always zero if there are no dispatch queues
+	 * @throws IllegalArgumentException if the device is not registered
 	 */
-	public void stop() {
-		for (InputDevice d : new ArrayList<InputDevice>(devices.keySet())) {
-			remove(d);
+	public int getQueueDepth(InputDevice device) {
+		int depth = 0;
+		for (Subscription subscription : getRegistration(device).index.subscriptions)
+			depth += subscription.getQueueDepth();
+		return depth;
+	}
+
+	/**
+	 * Get the number of times an event arrived when one of the dispatch queues
+	 * of a device's subscriptions was full.
+	 *
+	 * @param device device
+	 * @return overflow count, always zero if there are no dispatch queues
+	 * @throws IllegalArgumentException if the device is not registered
+	 */
+	public long getOverflowCount(InputDevice device) {
+		long overflows = 0;
+		for (Subscription subscription : getRegistration(device).index.subscriptions)
+			overflows += subscription.getOverflowCount();
+		return overflows;
+	}
+
+	private Registration getRegistration(InputDevice device) {
+		synchronized (devices) {
+			Registration registration = devices.get(device);
+			if (registration == null)
+				throw new IllegalArgumentException("No such device.");
+			return registration;
+		}
+	}
+
+	/**
+	 * Remove a device. All of its subscriptions (including the callback
+	 * registered with <code>add()</code>) will no longer receive events, and if
+	 * this is the last device being removed, the polling thread will be
+	 * shutdown.
+	 * 
+	 * @param device device to remove.
+	 */
+	public void remove(InputDevice device) {
+		synchronized (devices) {
+			if (!devices.containsKey(device)) {
+				throw new IllegalArgumentException("No such device.");
+			}
+
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Removing device " + device + " from UInput polling");
+
+			remove(devices.get(device));
+		}
+
+		if (LOG.isLoggable(Level.DEBUG))
+			LOG.log(Level.DEBUG, "Removed device " + device + " from UInput polling");
+	}
+
+	/**
+	 * Get a publisher of the events from a device. When the first subscriber
+	 * subscribes, a {@link Subscription} to the device is made, and as soon as
+	 * there are no subscribers left, it is cancelled again. If the device is
+	 * removed from the controller (including when it is replaced using
+	 * <code>add()</code>), subscribers are completed, or if it can no longer be
+	 * read (e.g. it was unplugged), they are sent the error. Later subscribers
+	 * start a new subscription to the device.
+	 * <p>
+	 * Each subscriber is sent no more events than it has requested. Up to
+	 * {@link #getQueueCapacity()} events are buffered for a subscriber that has
+	 * not requested any more. Beyond that, if the {@link OverflowPolicy} is
+	 * {@link OverflowPolicy#BLOCK}, the polling thread waits until there is
+	 * space, otherwise the subscriber misses the event. Subscribers are called
+	 * using the dispatch executor if there is one, or the common
+	 * {@link ForkJoinPool} if not.
+	 *
+	 * @param device device
+	 * @return publisher
+	 */
+	public Flow.Publisher<Event> publisher(InputDevice device) {
+		return new DevicePublisher<Event>() {
+			@Override
+			Subscription subscription(Consumer<Event> sink) {
+				return new Subscription(device, null, (d, event) -> sink.accept(event), null, null);
+			}
+		};
+	}
+
+	/**
+	 * Get a publisher of the frames from a device, i.e. all the events reported
+	 * together up to each <code>SYN_REPORT</code>. Each frame published is a copy,
+	 * so may be kept. Otherwise this is the same as
+	 * {@link #publisher(InputDevice)}.
+	 *
+	 * @param device device
+	 * @return publisher
+	 */
+	public Flow.Publisher<EventFrame> framePublisher(InputDevice device) {
+		return new DevicePublisher<EventFrame>() {
+			@Override
+			Subscription subscription(Consumer<EventFrame> sink) {
+				return new Subscription(device, null, null, null, (d, frame) -> sink.accept(frame.copy()));
+			}
+		};
+	}
+
+	/**
+	 * Get a publisher of the events read from every device registered with this
+	 * controller, however they were registered. Demand and buffering are the
+	 * same as for {@link #publisher(InputDevice)}, except that the executor and
+	 * buffer size are fixed when this is first called. From then on, filtered
+	 * subscriptions no longer limit what the kernel delivers for a device (see
+	 * {@link InputDevice#setEventMask(EventFilter)}), so every event is seen
+	 * here.
+	 *
+	 * @return publisher
+	 */
+	public Flow.Publisher<DeviceEvent> publisher() {
+		synchronized (devices) {
+			if (allEvents == null) {
+				allEvents = new SubmissionPublisher<>(publishExecutor(), queueCapacity);
+				/* Masked devices must now deliver everything */
+				for (Registration registration : devices.values())
+					registration.update();
+			}
+			return allEvents;
+		}
+	}
+
+	private Executor publishExecutor() {
+		return dispatchExecutor == null ? ForkJoinPool.commonPool() : dispatchExecutor;
+	}
+
+	/**
+	 * Remove a device if it is registered, and get a future that completes once
+	 * no polling thread can still be reading it, after which it may be closed.
+	 * Used when the device has gone, so closing it must not let its descriptor
+	 * be re-used while it is still being polled.
+	 *
+	 * @param device device
+	 * @return future
+	 */
+	CompletableFuture<Void> release(InputDevice device) {
+		synchronized (devices) {
+			Registration registration = devices.get(device);
+			if (registration == null)
+				return CompletableFuture.completedFuture(null);
+			remove(registration);
+			return registration.released;
+		}
+	}
+
+	private void remove(Registration registration) {
+		remove(registration, null);
+	}
+
+	private void remove(Registration registration, Throwable cause) {
+		synchronized (devices) {
+			if (registration == null || devices.get(registration.device) != registration)
+				return;
+			devices.remove(registration.device);
+			registration.close(cause);
+			registration.reactor.remove(registration);
+		}
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link Callback#event(InputDevice, Event)} method of the provided callback.
+	 * Any existing subscriptions to the device are cancelled, use
+	 * {@link #subscribe(InputDevice, EventFilter, Callback)} to add another.
+	 * <p>
+	 * If this is the first device to be added, the polling thread will also be
+	 * started.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when event arrives for this device
+	 */
+	public void add(InputDevice device, Callback callback) {
+		add(new Subscription(device, null, callback, null, null));
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link Callback#event(InputDevice, Event)} method of the provided callback
+	 * only for events accepted by the filter. Where the kernel supports it, the
+	 * filter is also applied to the device itself, so unwanted events are never
+	 * read at all. Any existing subscriptions to the device are cancelled.
+	 * <p>
+	 * If this is the first device to be added, the polling thread will also be
+	 * started.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when event arrives for this device
+	 * @param filter   filter selecting the events wanted
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public void add(InputDevice device, Callback callback, EventFilter filter) {
+		add(new Subscription(device, filter, callback, null, null));
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link RawCallback#event(InputDevice, int, int, int, long, long)} method of
+	 * the provided callback. Once running, nothing is allocated on the polling
+	 * thread for each event delivered this way. Any existing subscriptions to
+	 * the device are cancelled.
+	 * <p>
+	 * If this is the first device to be added, the polling thread will also be
+	 * started.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when event arrives for this device
+	 */
+	public void add(InputDevice device, RawCallback callback) {
+		add(new Subscription(device, null, null, callback, null));
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link RawCallback#event(InputDevice, int, int, int, long, long)} method of
+	 * the provided callback only for events accepted by the filter. Where the
+	 * kernel supports it, the filter is also applied to the device itself, so
+	 * unwanted events are never read at all. Any existing subscriptions to the
+	 * device are cancelled.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when event arrives for this device
+	 * @param filter   filter selecting the events wanted
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public void add(InputDevice device, RawCallback callback, EventFilter filter) {
+		add(new Subscription(device, filter, null, callback, null));
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link FrameCallback#frame(InputDevice, EventFrame)} method of the provided
+	 * callback once for each <code>SYN_REPORT</code>, with all the events that
+	 * were reported together. The same {@link EventFrame} is re-used for every
+	 * frame from this device. Any existing subscriptions to the device are
+	 * cancelled.
+	 * <p>
+	 * If this is the first device to be added, the polling thread will also be
+	 * started.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when a complete frame arrives for this
+	 *                 device
+	 */
+	public void addFrames(InputDevice device, FrameCallback callback) {
+		add(new Subscription(device, null, null, null, callback));
+	}
+
+	/**
+	 * Add a new device to be monitored for events, calling the
+	 * {@link FrameCallback#frame(InputDevice, EventFrame)} method of the provided
+	 * callback once for each <code>SYN_REPORT</code>, with the events that were
+	 * reported together and are accepted by the filter. Where the kernel supports
+	 * it, the filter is also applied to the device itself, so unwanted events are
+	 * never read at all. Any existing subscriptions to the device are cancelled.
+	 * 
+	 * @param device   device to monitor
+	 * @param callback callback invoked when a complete frame arrives for this
+	 *                 device
+	 * @param filter   filter selecting the events wanted
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public void addFrames(InputDevice device, FrameCallback callback, EventFilter filter) {
+		add(new Subscription(device, filter, null, null, callback));
+	}
+
+	/**
+	 * Subscribe to the events from a device that are accepted by a filter,
+	 * calling the {@link Callback#event(InputDevice, Event)} method of the
+	 * provided callback. Unlike <code>add()</code>, any existing subscriptions to
+	 * the device are kept, so a device may have many subscribers. Each event is
+	 * only passed to the subscriptions whose filters accept it, without checking
+	 * the filters of the others.
+	 * <p>
+	 * If this is the first device to be added, the polling thread will also be
+	 * started.
+	 *
+	 * @param device   device to monitor
+	 * @param filter   filter selecting the events wanted, or <code>null</code>
+	 *                 for all events
+	 * @param callback callback invoked when event arrives for this device
+	 * @return subscription
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public Subscription subscribe(InputDevice device, EventFilter filter, Callback callback) {
+		return subscribe(new Subscription(device, filter, callback, null, null));
+	}
+
+	/**
+	 * Subscribe to the events from a device that are accepted by a filter,
+	 * calling the {@link RawCallback#event(InputDevice, int, int, int, long, long)}
+	 * method of the provided callback. See
+	 * {@link #subscribe(InputDevice, EventFilter, Callback)}.
+	 *
+	 * @param device   device to monitor
+	 * @param filter   filter selecting the events wanted, or <code>null</code>
+	 *                 for all events
+	 * @param callback callback invoked when event arrives for this device
+	 * @return subscription
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public Subscription subscribe(InputDevice device, EventFilter filter, RawCallback callback) {
+		return subscribe(new Subscription(device, filter, null, callback, null));
+	}
+
+	/**
+	 * Subscribe to the frames from a device, containing the events accepted by a
+	 * filter, calling the {@link FrameCallback#frame(InputDevice, EventFrame)}
+	 * method of the provided callback. See
+	 * {@link #subscribe(InputDevice, EventFilter, Callback)}.
+	 *
+	 * @param device   device to monitor
+	 * @param filter   filter selecting the events wanted, or <code>null</code>
+	 *                 for all events
+	 * @param callback callback invoked when a complete frame arrives for this
+	 *                 device
+	 * @return subscription
+	 * @throws IllegalArgumentException if the device cannot produce all events
+	 *                                  the filter selects
+	 */
+	public Subscription subscribeFrames(InputDevice device, EventFilter filter, FrameCallback callback) {
+		return subscribe(new Subscription(device, filter, null, null, callback));
+	}
+
+	private void add(Subscription subscription) {
+		synchronized (devices) {
+			remove(devices.get(subscription.device));
+			subscribe(subscription);
+		}
+	}
+
+	private Subscription subscribe(Subscription subscription) {
+		InputDevice device = subscription.device;
+		if (subscription.filter != null) {
+			subscription.filter.validate(device);
+		}
+		synchronized (devices) {
+			Registration registration = devices.get(device);
+			if (registration == null) {
+				try {
+					/* A probed device is only opened once its events are wanted */
+					device.ensureOpen();
+				} catch (IOException ioe) {
+					throw new IllegalStateException("Failed to open " + device.getFile() + ".", ioe);
+				}
+			}
+			subscription.open(this);
+			if (registration == null) {
+				registration = new Registration(device);
+				registration.open(this);
+				registration.subscribe(subscription);
+				Integer pin = device.getFile() == null ? null : pins.get(pinKey(device));
+				int index = pin == null ? reactorStrategy.reactor(device, reactors.length) : pin;
+				if (index < 0 || index >= reactors.length) {
+					registration.close(null);
+					registration.released.complete(null);
+					throw new IllegalArgumentException(
+							String.format("Reactor %d is out of range, there are %d reactors.", index, reactors.length));
+				}
+				devices.put(device, registration);
+				registration.reactor = reactors[index];
+				registration.reactor.add(registration);
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Added " + device + " to polling");
+			} else {
+				registration.subscribe(subscription);
+			}
+			return subscription;
+		}
+	}
+
+	private void unsubscribe(Subscription subscription) {
+		synchronized (devices) {
+			Registration registration = subscription.registration;
+			if (registration == null || !subscription.active)
+				return;
+			subscription.close(null);
+			if (registration.unsubscribe(subscription))
+				remove(registration);
+		}
+	}
+
+	/**
+	 * Stop.
+	 */
+	public void stop() {
+		for (InputDevice d : new ArrayList<InputDevice>(devices.keySet())) {
+			remove(d);
+		}
+	}
+
+	static int deviceClass(InputDevice device) {
+		DeviceClassifier.Classification classification = DeviceClassifier.getInstance().get(device);
+		DeviceClassifier.DeviceClass primary = classification.getPrimary();
+		if (primary == null)
+			return 4;
+		switch (primary) {
+		case TABLET:
+		case TOUCHSCREEN:
+		case TOUCHPAD:
+			return 0;
+		case POINTER:
+			return classification.isPointer(EventCode.Type.EV_REL) ? 1 : 3;
+		case KEYBOARD:
+			return 2;
+		case JOYSTICK:
+			return 3;
+		default:
+			return 4;
+		}
+	}
+
+	/**
+	 * Publishes the events of one device. The device is subscribed to for as
+	 * long as there are subscribers, and each subscriber has its own bounded
+	 * buffer. Each subscription to the device has its own
+	 * {@link SubmissionPublisher}, which is closed when the subscription stops,
+	 * for whatever reason.
+	 *
+	 * @param <T> type of item
+	 */
+	private abstract class DevicePublisher<T> implements Flow.Publisher<T> {
+		private final boolean block = overflowPolicy == OverflowPolicy.BLOCK;
+		private SubmissionPublisher<T> publisher;
+		private Subscription subscription;
+		private int subscribers;
+
+		/**
+		 * Create the subscription that passes each item to a sink.
+		 *
+		 * @param sink sink
+		 * @return subscription
+		 */
+		abstract Subscription subscription(Consumer<T> sink);
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super T> subscriber) {
+			synchronized (this) {
+				if (subscription == null || !subscription.isActive()) {
+					SubmissionPublisher<T> p = new SubmissionPublisher<>(publishExecutor(), queueCapacity);
+					Subscription s = subscription(item -> publish(p, item));
+					/* Called with the device lock held, so must not take this one */
+					s.onClose = cause -> {
+						if (cause == null)
+							p.close();
+						else
+							p.closeExceptionally(cause);
+					};
+					try {
+						InputController.this.subscribe(s);
+					} catch (RuntimeException re) {
+						p.close();
+						subscriber.onSubscribe(new Flow.Subscription() {
+							@Override
+							public void request(long n) {
+							}
+
+							@Override
+							public void cancel() {
+							}
+						});
+						subscriber.onError(re);
+						return;
+					}
+					publisher = p;
+					subscription = s;
+					subscribers = 0;
+				}
+				SubmissionPublisher<T> p = publisher;
+				AtomicBoolean gone = new AtomicBoolean();
+				subscribers++;
+				p.subscribe(new Flow.Subscriber<T>() {
+					@Override
+					public void onSubscribe(Flow.Subscription s) {
+						subscriber.onSubscribe(new Flow.Subscription() {
+							@Override
+							public void request(long n) {
+								s.request(n);
+							}
+
+							@Override
+							public void cancel() {
+								s.cancel();
+								/* The publisher only forgets the subscriber later, so count it now */
+								if (gone.compareAndSet(false, true))
+									left(p);
+							}
+						});
+					}
+
+					@Override
+					public void onNext(T item) {
+						subscriber.onNext(item);
+					}
+
+					@Override
+					public void onError(Throwable throwable) {
+						if (gone.compareAndSet(false, true))
+							left(p);
+						subscriber.onError(throwable);
+					}
+
+					@Override
+					public void onComplete() {
+						if (gone.compareAndSet(false, true))
+							left(p);
+						subscriber.onComplete();
+					}
+				});
+			}
+		}
+
+		private void publish(SubmissionPublisher<T> p, T item) {
+			if (!p.hasSubscribers()) {
+				/* Every subscriber has gone without cancelling, e.g. one threw */
+				unused(p);
+				return;
+			}
+			try {
+				if (block)
+					p.submit(item);
+				else
+					p.offer(item, null);
+			} catch (IllegalStateException ise) {
+				/* Closed as the device was removed */
+			}
+		}
+
+		private void left(SubmissionPublisher<T> p) {
+			synchronized (this) {
+				if (publisher == p && --subscribers == 0)
+					unsubscribe();
+			}
+		}
+
+		private void unused(SubmissionPublisher<T> p) {
+			synchronized (this) {
+				if (publisher == p && !p.hasSubscribers())
+					unsubscribe();
+			}
+		}
+
+		private void unsubscribe() {
+			subscription.cancel();
+			subscription = null;
+			publisher = null;
+		}
+	}
+
+	/**
+	 * A polling thread, and the devices it handles. All changes to the devices
+	 * are made while holding the lock on {@link InputController#devices}, and are
+	 * passed to the thread through a queue, waking it using an eventfd.
+	 */
+	private final class Reactor {
+		private final int index;
+		private final String name;
+		private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+		private final Memory wakeBuffer = new Memory(8);
+		private int registrations;
+		private Thread thread;
+		private int wakeFd = -1;
+
+		private Reactor(int index, int reactors) {
+			this.index = index;
+			name = reactors == 1 ? "UInput" : "UInput-" + index;
+		}
+
+		private void add(Registration registration) {
+			registrations++;
+			pending.add(registration);
+			if (thread == null) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Starting " + name + " polling");
+				wakeFd = CLib.INSTANCE.eventfd(0, CLib.EFD_CLOEXEC | CLib.EFD_NONBLOCK);
+				if (wakeFd == -1) {
+					registrations--;
+					pending.remove(registration);
+					devices.remove(registration.device);
+					registration.close(null);
+					registration.released.complete(null);
+					throw new IllegalStateException(
+							String.format("Failed to create wake-up eventfd, error %d.", Native.getLastError()));
+				}
+				int fd = wakeFd;
+				int policy = schedulingPolicy;
+				int priority = schedulingPriority;
+				int[] cpus = cpuAffinity;
+				if (cpus != null && reactors.length > 1)
+					cpus = new int[] { cpus[index % cpus.length] };
+				boolean lock = lockMemory;
+				int[] affinity = cpus;
+				thread = new Thread(name) {
+					public void run() {
+						configure(policy, priority, affinity, lock);
+						try {
+							poll(fd);
+						} catch (IOException | RuntimeException e) {
+							LOG.log(Level.ERROR, "Failed to poll.", e);
+						}
+					}
+				};
+				thread.setPriority(Thread.MAX_PRIORITY);
+//				thread.setDaemon(true);
+				thread.start();
+			} else {
+				wake();
+			}
+		}
+
+		/**
+		 * Apply scheduling, affinity and memory locking. Must be called by the
+		 * polling thread itself, as a pid of zero means the calling thread.
+		 */
+		private void configure(int policy, int priority, int[] cpus, boolean lock) {
+			if (lock && CLib.INSTANCE.mlockall(CLib.MCL_CURRENT | CLib.MCL_FUTURE) == -1)
+				LOG.log(Level.WARNING,
+						String.format("Failed to lock memory for %s polling, error %d.", name, Native.getLastError()));
+			if (cpus != null) {
+				int max = 0;
+				for (int cpu : cpus)
+					max = Math.max(max, cpu);
+				/* A cpu_set_t is an array of longs, at least as big as glibc's 1024 bits */
+				int bits = NativeLong.SIZE * 8;
+				int words = Math.max(1024 / bits, max / bits + 1);
+				Memory mask = new Memory(words * NativeLong.SIZE);
+				mask.clear();
+				for (int cpu : cpus) {
+					long offset = (cpu / bits) * NativeLong.SIZE;
+					long word = mask.getNativeLong(offset).longValue() | (1L << (cpu % bits));
+					mask.setNativeLong(offset, new NativeLong(word));
+				}
+				if (CLib.INSTANCE.sched_setaffinity(0, new NativeLong(mask.size()), mask) == -1)
+					LOG.log(Level.WARNING, String.format("Failed to pin %s polling to CPUs %s, error %d.", name,
+							Arrays.toString(cpus), Native.getLastError()));
+				else if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, String.format("Pinned %s polling to CPUs %s", name, Arrays.toString(cpus)));
+			}
+			if (policy != CLib.SCHED_OTHER) {
+				if (CLib.INSTANCE.sched_setscheduler(0, policy, new int[] { priority }) == -1)
+					LOG.log(Level.WARNING,
+							String.format("Failed to set scheduling policy %d priority %d for %s polling, error %d.",
+									policy, priority, name, Native.getLastError()));
+				else if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, String.format("Scheduling %s polling with policy %d priority %d", name,
+							policy, priority));
+			}
+		}
+
+		private void remove(Registration registration) {
+			registrations--;
+			if (thread == null) {
+				/* Nothing is polling it */
+				registration.released.complete(null);
+			} else {
+				pending.add(registration);
+				wake();
+			}
+		}
+
+		private void wake() {
+			if (thread != null) {
+				wakeBuffer.setLong(0, 1);
+				if (CLib.INSTANCE.write(wakeFd, wakeBuffer, new NativeLong(8)).longValue() == -1
+						&& LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG,
+							String.format("Failed to wake %s polling, error %d.", name, Native.getLastError()));
+			}
+		}
+
+		private void poll(int wakeFd) throws IOException {
+			Poller<Registration> poller = Poller.create(backend);
+			Memory wakeRead = new Memory(8);
+			try {
+				/* The wake-up eventfd has no registration */
+				poller.add(wakeFd, null);
+				List<Registration> coalescing = new ArrayList<>();
+				while (true) {
+					Registration registration;
+					while ((registration = pending.poll()) != null) {
+						if (registration.active) {
+							poller.add(registration.device.getFD(), registration);
+							if (registration.coalescer != null)
+								coalescing.add(registration);
+						} else {
+							poller.remove(registration);
+							coalescing.remove(registration);
+							registration.released.complete(null);
+						}
+					}
+					synchronized (devices) {
+						if (registrations == 0) {
+							/* Anything still pending are removals */
+							released();
+							stopped(wakeFd);
+							return;
+						}
+					}
+
+					/* Wake up in time to deliver any motion held for too long */
+					int timeout = -1;
+					if (!coalescing.isEmpty()) {
+						long now = System.nanoTime();
+						for (int i = 0; i < coalescing.size(); i++) {
+							long nanos = coalescing.get(i).coalescer.tick(now);
+							if (nanos >= 0) {
+								int ms = (int) Math.max(1, (nanos + 999999) / 1000000);
+								timeout = timeout == -1 ? ms : Math.min(timeout, ms);
+							}
+						}
+					}
+
+					int rel = poller.wait(timeout);
+					for (int i = 0; i < rel; i++) {
+						registration = poller.ready(i);
+						if (registration == null) {
+							/* Woken up to apply changes, just reset the eventfd */
+							CLib.Direct.read(wakeFd, wakeRead, 8);
+						} else if (registration.active) {
+							try {
+								registration.read(maxEventsPerWakeup);
+							} catch (EOFException eof) {
+								/* The device has gone (e.g. unplugged), it would otherwise stay ready forever */
+								if (LOG.isLoggable(Level.DEBUG))
+									LOG.log(Level.DEBUG, "Device " + registration.device.getFile()
+											+ " can no longer be read, removing it from " + name + " polling");
+								poller.remove(registration);
+								coalescing.remove(registration);
+								InputController.this.remove(registration, eof);
+								registration.released.complete(null);
+							}
+						}
+					}
+				}
+			} finally {
+				poller.close();
+				synchronized (devices) {
+					if (thread == Thread.currentThread()) {
+						/* A new thread will start with nothing registered */
+						released();
+						for (Registration registration : devices.values()) {
+							if (registration.reactor == this)
+								pending.add(registration);
+						}
+						stopped(wakeFd);
+					}
+				}
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "No long polling for " + name + " events");
+			}
+		}
+
+		/**
+		 * Empty the pending queue, completing the release of any registrations
+		 * that were waiting to be removed.
+		 */
+		private void released() {
+			Registration registration;
+			while ((registration = pending.poll()) != null) {
+				if (!registration.active)
+					registration.released.complete(null);
+			}
+		}
+
+		private void stopped(int wakeFd) {
+			CLib.INSTANCE.close(wakeFd);
+			this.wakeFd = -1;
+			thread = null;
+		}
+	}
+
+	/**
+	 * A subscription to the events from a device, made using one of the
+	 * <code>subscribe()</code>, <code>subscribeFrames()</code>,
+	 * <code>add()</code> or <code>addFrames()</code> methods.
+	 */
+	public final static class Subscription {
+		private final InputDevice device;
+		private final EventFilter filter;
+		private final Callback callback;
+		private final RawCallback rawCallback;
+		private final FrameCallback frameCallback;
+		private final EventFrame frame;
+		private volatile boolean active = true;
+		private DispatchQueue queue;
+		private Registration registration;
+		private Consumer<Throwable> onClose;
+
+		private Subscription(InputDevice device, EventFilter filter, Callback callback, RawCallback rawCallback,
+				FrameCallback frameCallback) {
+			this.device = device;
+			this.filter = filter;
+			this.callback = callback;
+			this.rawCallback = rawCallback;
+			this.frameCallback = frameCallback;
+			frame = frameCallback == null ? null : new EventFrame();
+		}
+
+		/**
+		 * Get the device subscribed to.
+		 *
+		 * @return device
+		 */
+		public InputDevice getDevice() {
+			return device;
+		}
+
+		/**
+		 * Get the filter selecting the events wanted, or <code>null</code> for all
+		 * events.
+		 *
+		 * @return filter
+		 */
+		public EventFilter getFilter() {
+			return filter;
+		}
+
+		/**
+		 * Get whether this subscription is still receiving events.
+		 *
+		 * @return active
+		 */
+		public boolean isActive() {
+			return active;
+		}
+
+		/**
+		 * Get the number of events waiting in this subscription's dispatch queue.
+		 *
+		 * @return queue depth, always zero if there is no dispatch queue
+		 */
+		public int getQueueDepth() {
+			return queue == null ? 0 : queue.depth();
+		}
+
+		/**
+		 * Get the number of times an event arrived when this subscription's
+		 * dispatch queue was full.
+		 *
+		 * @return overflow count, always zero if there is no dispatch queue
+		 */
+		public long getOverflowCount() {
+			return queue == null ? 0 : queue.overflows();
+		}
+
+		/**
+		 * Stop receiving events. If this is the last subscription to the device,
+		 * the device is removed from the controller.
+		 */
+		public void cancel() {
+			Registration r = registration;
+			if (r != null)
+				r.controller.unsubscribe(this);
+		}
+
+		/**
+		 * Get a future that completes once the device is no longer polled for this
+		 * subscription, i.e. after it has been cancelled and the polling thread
+		 * has let go of the device, or straight away if another subscription is
+		 * still keeping the device polled.
+		 *
+		 * @return future
+		 */
+		CompletableFuture<Void> released() {
+			Registration r = registration;
+			if (r == null || r.active)
+				return CompletableFuture.completedFuture(null);
+			return r.released;
+		}
+
+		private void open(InputController controller) {
+			if (controller.dispatchExecutor != null) {
+				queue = new DispatchQueue(this::deliver, controller.dispatchExecutor, controller.queueCapacity,
+						controller.overflowPolicy);
+			}
+		}
+
+		private void close(Throwable cause) {
+			if (!active)
+				return;
+			active = false;
+			if (queue != null) {
+				queue.close();
+			}
+			if (onClose != null) {
+				onClose.accept(cause);
+			}
+		}
+
+		private void event(int type, int code, int value, long sec, long usec) {
+			if (filter != null && !filter.acceptsValue(type, value)) {
+				return;
+			}
+			if (queue == null) {
+				try {
+					deliver(type, code, value, sec, usec);
+				} catch (RuntimeException re) {
+					/* Must not stop the polling thread, or the other subscribers */
+					LOG.log(Level.ERROR, "Callback failed.", re);
+				}
+			} else {
+				queue.event(type, code, value, sec, usec);
+			}
+		}
+
+		private void deliver(int type, int code, int value, long sec, long usec) {
+			if (frameCallback != null) {
+				if (frame.add(type, code, value, sec, usec)) {
+					frameCallback.frame(device, frame);
+				}
+			} else if (rawCallback == null) {
+				Event event;
+				try {
+					event = InputDevice.event(type, code, value, sec, usec);
+				} catch (IllegalArgumentException iae) {
+					LOG.log(Level.WARNING, "Failed to process key.", iae);
+					return;
+				}
+				callback.event(device, event);
+			} else {
+				rawCallback.event(device, type, code, value, sec, usec);
+			}
+		}
+	}
+
+	/**
+	 * The subscriptions of a device, indexed by the type and code of the events
+	 * each one accepts. Never changed once built, a new index replaces it
+	 * whenever the subscriptions change.
+	 */
+	private final static class Index {
+		private final static Subscription[] NONE = new Subscription[0];
+		private final static Index EMPTY = new Index(Collections.emptyList());
+
+		private final Subscription[] subscriptions;
+		private final Subscription[] unfiltered;
+		private final Subscription[][][] codes = new Subscription[EventCode.Ev.EV_CNT][][];
+
+		private Index(List<Subscription> subscriptions) {
+			this.subscriptions = subscriptions.toArray(NONE);
+			unfiltered = accepting(this.subscriptions, -1, -1);
+			for (int type = 0; type < EventCode.Ev.EV_CNT; type++) {
+				int count = EventCode.Type.count(type);
+				if (count == 0)
+					continue;
+				Subscription[][] c = new Subscription[count][];
+				Subscription[] previous = NONE;
+				for (int code = 0; code < count; code++) {
+					Subscription[] accepting = accepting(this.subscriptions, type, code);
+					/* Most neighbouring codes have the same subscriptions, so share them */
+					c[code] = previous = Arrays.equals(accepting, previous) ? previous : accepting;
+				}
+				codes[type] = c;
+			}
+		}
+
+		private Subscription[] get(int type, int code) {
+			if (type < 0 || type >= codes.length)
+				return unfiltered;
+			Subscription[][] c = codes[type];
+			return c == null || code < 0 || code >= c.length ? unfiltered : c[code];
+		}
+
+		private static Subscription[] accepting(Subscription[] subscriptions, int type, int code) {
+			List<Subscription> l = new ArrayList<>();
+			for (Subscription subscription : subscriptions) {
+				if (subscription.filter == null || (type != -1 && subscription.filter.accepts(type, code)))
+					l.add(subscription);
+			}
+			return l.isEmpty() ? NONE : l.toArray(NONE);
+		}
+	}
+
+	/**
+	 * A device being polled, and its subscriptions.
+	 */
+	private final static class Registration implements InputDevice.RawEventSink {
+		private final InputDevice device;
+		private final List<Subscription> subscriptions = new ArrayList<>();
+		private volatile Index index = Index.EMPTY;
+		private volatile boolean active = true;
+		/* Completed once the polling thread will no longer read the device */
+		private final CompletableFuture<Void> released = new CompletableFuture<>();
+		private Reactor reactor;
+		private MotionCoalescer coalescer;
+		private InputController controller;
+		private boolean masked;
+		private boolean wasNonBlocking;
+		private boolean drain;
+
+		private Registration(InputDevice device) {
+			this.device = device;
+		}
+
+		private void open(InputController controller) {
+			this.controller = controller;
+			wasNonBlocking = device.isNonBlocking();
+			try {
+				/* So everything queued can be read without risking blocking */
+				device.setNonBlocking(true);
+				drain = true;
+			} catch (IOException ioe) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Could not make " + device.getFile() + " non-blocking", ioe);
+			}
+			if (controller.motionCoalescing != null && device.hasCapability(EventCode.Ev.EV_REL)) {
+				coalescer = new MotionCoalescer(this::forward, controller.motionCoalescing);
+			}
+		}
+
+		private void close(Throwable cause) {
+			active = false;
+			for (Subscription subscription : subscriptions) {
+				subscription.close(cause);
+			}
+			if (masked && device.isOpen()) {
+				setMask(null);
+			}
+			if (drain && !wasNonBlocking && device.isOpen()) {
+				try {
+					device.setNonBlocking(false);
+				} catch (IOException ioe) {
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, "Could not make " + device.getFile() + " blocking again", ioe);
+				}
+			}
+		}
+
+		/**
+		 * Read the events the kernel has queued, up to a maximum. A read that
+		 * returns fewer events than asked for has emptied the kernel's queue, so
+		 * there is no need for another read to find that out.
+		 *
+		 * @param max maximum number of events
+		 * @throws IOException on error
+		 */
+		private void read(int max) throws IOException {
+			try {
+				int total = 0;
+				do {
+					int want = Math.min(InputDevice.DEFAULT_MAX_EVENTS, max - total);
+					int count = device.readEvents(this, want);
+					total += count;
+					if (count < want)
+						break;
+				} while (drain && total < max && active);
+			} finally {
+				flush();
+			}
+		}
+
+		private void subscribe(Subscription subscription) {
+			subscription.registration = this;
+			subscriptions.add(subscription);
+			update();
+		}
+
+		private boolean unsubscribe(Subscription subscription) {
+			subscriptions.remove(subscription);
+			if (subscriptions.isEmpty())
+				return true;
+			update();
+			return false;
+		}
+
+		private void update() {
+			index = new Index(subscriptions);
+
+			/*
+			 * The kernel need only deliver what at least one subscription wants,
+			 * unless everything is wanted for the controller wide publisher
+			 */
+			EventFilter mask = null;
+			if (controller.allEvents == null) {
+				mask = new EventFilter();
+				for (Subscription subscription : subscriptions) {
+					if (subscription.filter == null) {
+						mask = null;
+						break;
+					}
+					mask.merge(subscription.filter);
+				}
+			}
+			if (mask != null || masked) {
+				masked = mask != null;
+				setMask(mask);
+			}
+		}
+
+		private void setMask(EventFilter mask) {
+			try {
+				device.setEventMask(mask);
+			} catch (IOException ioe) {
+				/* Older kernels, events will be filtered as they are read */
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Could not set event mask for " + device.getFile(), ioe);
+			}
+		}
+
+		private void flush() {
+			for (Subscription subscription : index.subscriptions) {
+				if (subscription.queue != null)
+					subscription.queue.flush();
+			}
+		}
+
+		@Override
+		public void event(int type, int code, int value, long sec, long usec) {
+			if (coalescer == null) {
+				forward(type, code, value, sec, usec);
+			} else {
+				coalescer.event(type, code, value, sec, usec);
+			}
+		}
+
+		private void forward(int type, int code, int value, long sec, long usec) {
+			SubmissionPublisher<DeviceEvent> all = controller.allEvents;
+			if (all != null && all.hasSubscribers()) {
+				publish(all, type, code, value, sec, usec);
+			}
+			for (Subscription subscription : index.get(type, code)) {
+				subscription.event(type, code, value, sec, usec);
+			}
+		}
+
+		private void publish(SubmissionPublisher<DeviceEvent> all, int type, int code, int value, long sec,
+				long usec) {
+			Event event;
+			try {
+				event = InputDevice.event(type, code, value, sec, usec);
+			} catch (IllegalArgumentException iae) {
+				return;
+			}
+			if (controller.overflowPolicy == OverflowPolicy.BLOCK)
+				all.submit(new DeviceEvent(device, event));
+			else
+				all.offer(new DeviceEvent(device, event), null);
 		}
 	}
 }
@@ -26,16 +26,25 @@ import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
@@ -62,12 +71,20 @@ import uk.co.bithatch.linuxio.UInput.uinput_setup;
  * <p>
  * There are a couple of helper methods to get the first available mouse or
  * keyboard device. See {@link #getFirstKeyboardDevice()} and
- * {@link #getFirstPointerDevice()}.
+ * {@link #getFirstPointerDevice()}. These use the shared
+ * {@link DeviceClassifier}, so each device is only examined once, and only the
+ * devices returned are opened.
  * <p>
  * If your uinput device files are somewhere other that <i>/dev/input</i>, you
  * may set the system property <b>linuxio.input.deviceS</b> to the path that
  * contains them.
  * <p>
+ * Devices may also be described using only what the kernel publishes in
+ * sysfs, without opening the device node at all, using
+ * {@link #probe(Path)}. If the sysfs input class directory is somewhere other
+ * than <i>/sys/class/input</i>, set the system property
+ * <b>linuxio.input.sysfs</b>.
+ * <p>
  * You can also create virtual devices and emit events from them. For this use
  * the {@link InputDevice(String, short, short)} constructor and
  * the {@link #emit(Event)} methods.
@@ -77,6 +94,8 @@ public class InputDevice implements Closeable {
 
 	private static final String SYSPROP_LINUXIO_POINTER_TYPES = "linuxio.pointer.types";
 	private static final String INPUT_DEVICES = "linuxio.input.devices";
+	private static final String PROBE_THREADS = "linuxio.input.probeThreads";
+	private static final int DEFAULT_PROBE_THREADS = 4;
 
 	final static Logger LOG = System.getLogger(InputDevice.class.getName());
 
@@ -84,14 +103,10 @@ public class InputDevice implements Closeable {
 	 * The Class Event.
 	 */
 	public static class Event {
-		private long utime;
+		private long nanos;
 		private EventCode code;
 		private int value;
 
-		private Event(Input.input_event ev) {
-			this(ev.time.tv_usec.longValue() * 1000, EventCode.fromCode(ev.type, ev.code), ev.value);
-		}
-
 		/**
 		 * Instantiates a new event.
 		 *
@@ -114,33 +129,49 @@ public class InputDevice implements Closeable {
 		/**
 		 * Instantiates a new event.
 		 *
-		 * @param utime the utime
+		 * @param utime the time in microseconds
 		 * @param code the code
 		 * @param value the value
 		 */
 		public Event(long utime, EventCode code, int value) {
 			super();
-			this.utime = utime;
+			this.nanos = utime * 1000;
 			this.code = code;
 			this.value = value;
 		}
 
 		/**
-		 * Get the time in milliseconds since 1st Jan 1970 12:00.
+		 * Get the time in milliseconds. Unless the device has been switched to
+		 * another clock using {@link InputDevice#setClock(int)}, this is since 1st
+		 * Jan 1970 00:00.
 		 * 
 		 * @return time in milliseconds
 		 */
 		public long getTime() {
-			return utime / 1000;
+			return nanos / 1000000;
 		}
 
 		/**
-		 * Get the time in microseconds since 1st Jan 1970 12:00.
+		 * Get the time in microseconds. Unless the device has been switched to
+		 * another clock using {@link InputDevice#setClock(int)}, this is since 1st
+		 * Jan 1970 00:00.
 		 * 
 		 * @return time in microseconds
 		 */
 		public long getUTime() {
-			return utime;
+			return nanos / 1000;
+		}
+
+		/**
+		 * Get the time in nanoseconds. Unless the device has been switched to
+		 * another clock using {@link InputDevice#setClock(int)}, this is since 1st
+		 * Jan 1970 00:00. The kernel reports times to the microsecond, so this is
+		 * always a whole number of microseconds.
+		 * 
+		 * @return time in nanoseconds
+		 */
+		public long getNanoTime() {
+			return nanos;
 		}
 
 		/**
@@ -168,11 +199,79 @@ public class InputDevice implements Closeable {
 		 */
 		@Override
 		public String toString() {
-			return "Event [time=" + utime + ", code=" + code + ", value=" + value + "]";
+			return "Event [time=" + getUTime() + ", code=" + code + ", value=" + value + "]";
 		}
 
 	}
 
+	/**
+	 * Receives events read in bulk using {@link InputDevice#readEvents(EventSink, int)}.
+	 */
+	public interface EventSink {
+
+		/**
+		 * Event.
+		 *
+		 * @param event the event
+		 */
+		void event(Event event);
+	}
+
+	/**
+	 * Receives events read in bulk using
+	 * {@link InputDevice#readEvents(RawEventSink, int)} as primitives, so that
+	 * nothing is allocated per event.
+	 */
+	public interface RawEventSink {
+
+		/**
+		 * Event.
+		 *
+		 * @param type  the event type
+		 * @param code  the event code
+		 * @param value the value
+		 * @param sec   seconds part of the event time
+		 * @param usec  microseconds part of the event time
+		 */
+		void event(int type, int code, int value, long sec, long usec);
+	}
+
+	/**
+	 * Receives complete frames of events, i.e. all events up to a
+	 * <code>SYN_REPORT</code>, read using
+	 * {@link InputDevice#readFrames(FrameSink, int)}.
+	 */
+	public interface FrameSink {
+
+		/**
+		 * Frame. The frame instance is re-used, so must be copied if it is needed
+		 * after this method returns.
+		 *
+		 * @param frame the frame
+		 */
+		void frame(EventFrame frame);
+	}
+
+	/** The default maximum number of events read by a single bulk read. */
+	public final static int DEFAULT_MAX_EVENTS = 64;
+
+	/* Layout of struct input_event, a timeval (two native longs) then type, code and value */
+	private final static int EVENT_SIZE = Native.LONG_SIZE * 2 + 8;
+	private final static int EVENT_TYPE_OFFSET = Native.LONG_SIZE * 2;
+	private final static int EVENT_CODE_OFFSET = EVENT_TYPE_OFFSET + 2;
+	private final static int EVENT_VALUE_OFFSET = EVENT_TYPE_OFFSET + 4;
+
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+
+	/* A native struct timespec per thread, for reading clocks */
+	private final static ThreadLocal<Memory> TIMESPEC = new ThreadLocal<Memory>() {
+		@Override
+		protected Memory initialValue() {
+			return new Memory(Native.LONG_SIZE * 2);
+		}
+	};
+
 	/** The Constant SYN. */
 	public final static Event SYN = new Event(EventCode.SYN_REPORT, 0);
 
@@ -185,7 +284,7 @@ public class InputDevice implements Closeable {
 	private String name;
 	private String inputDriverVersion;
 	private boolean open;
-	private Set<EventCode> caps = new LinkedHashSet<>();
+	private final CapabilitySet caps = new CapabilitySet();
 	private Set<Property> props = new LinkedHashSet<>();
 	private Map<EventCode, Map<EventCode.AbsoluteValue, Integer>> absoluteValues = new TreeMap<>();
 	private pollfd pollFd;
@@ -196,6 +295,23 @@ public class InputDevice implements Closeable {
 	private int bus = UInput.BUS_USB;
 	private int version;
 	private boolean capsRead;
+	private boolean absRead;
+	private Memory eventBuffer;
+	private FrameAssembler frameAssembler;
+	private final InputState state = new InputState();
+	private final ArrayDeque<Event> queued = new ArrayDeque<>();
+	private boolean resyncing;
+	/* State changes read since the last SYN_REPORT, packed as type, code and value */
+	private long[] pendingStates = new long[16];
+	private int pendingState;
+	private Memory maskBuffer;
+	private int clockId = CLib.CLOCK_REALTIME;
+	private boolean nonBlocking;
+	private volatile long dropped;
+	private boolean deferred;
+	private boolean closed;
+
+	private static ThreadPoolExecutor probeExecutor;
 
 	/**
 	 * Helper to get what appears to be the first pointer device (e.g. a mouse). If
@@ -211,64 +327,15 @@ public class InputDevice implements Closeable {
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	public final static InputDevice getFirstPointerDevice() throws IOException {
-		//
-		for (String typeName : System
-				.getProperty(SYSPROP_LINUXIO_POINTER_TYPES, Type.EV_ABS.code() + "," + Type.EV_REL.code()).split(",")) {
-
-			// Parse the type name either by its
-			Type t = null;
-			try {
-				t = Type.fromCode(Integer.parseInt(typeName));
-			} catch (NumberFormatException nfe) {
-				t = Type.valueOf(typeName);
-			}
-
-			if (t == null) {
-				LOG.log(Level.WARNING,
-						"Unknown event type in " + SYSPROP_LINUXIO_POINTER_TYPES + " property, '" + typeName + "'");
-			} else {
-				List<InputDevice> availableDevices = getAvailableDevices();
-				InputDevice theDevice = null;
-				try {
-					for (InputDevice dev : availableDevices) {
-						if (LOG.isLoggable(Level.DEBUG))
-							LOG.log(Level.DEBUG, dev.getName());
-						Collection<EventCode> codes = dev.getCapabilities();
-						if (t == Type.EV_REL) {
-							if (codes == null
-									|| (!codes.contains(EventCode.REL_X) && !codes.contains(EventCode.REL_Y))) {
-								continue;
-							}
-						} else if (t == Type.EV_ABS) {
-							if (codes == null
-									|| (!codes.contains(EventCode.ABS_X) && !codes.contains(EventCode.ABS_Y))) {
-								continue;
-							}
-						}
-						LOG.log(Level.TRACE, "Device has some " + t + " caps");
-						codes = Type.EV_KEY.get(codes);
-						int buttons = 0;
-						for (EventCode s : codes) {
-							if (s.isButton()) {
-								buttons++;
-							}
-						}
-						if (buttons > 0) {
-							theDevice = dev;
-							break;
-						}
-
-					}
-				} finally {
-					for (InputDevice d : availableDevices) {
-						if (d != theDevice) {
-							d.close();
-						}
-					}
+		File[] files = getEventFiles(true);
+		DeviceClassifier classifier = DeviceClassifier.getInstance();
+		for (Type t : getPointerTypes()) {
+			for (File f : files) {
+				if (classifier.get(f.toPath()).isPointer(t)) {
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, "Device " + f + " has some " + t + " caps");
+					return new InputDevice(f);
 				}
-
-				if (theDevice != null)
-					return theDevice;
 			}
 		}
 		throw new IOException("No devices that look like a pointer could be found.");
@@ -288,51 +355,14 @@ public class InputDevice implements Closeable {
 	 */
 	public final static List<InputDevice> getAllPointerDevices() throws IOException {
 		List<InputDevice> pointerDevices = new ArrayList<InputDevice>();
-		//
-		for (String typeName : System
-				.getProperty(SYSPROP_LINUXIO_POINTER_TYPES, Type.EV_ABS.code() + "," + Type.EV_REL.code()).split(",")) {
-
-			// Parse the type name either by its
-			Type t = null;
-			try {
-				t = Type.fromCode(Integer.parseInt(typeName));
-			} catch (NumberFormatException nfe) {
-				t = Type.valueOf(typeName);
-			}
-
-			if (t == null) {
-				LOG.log(Level.WARNING,
-						"Unknown event type in " + SYSPROP_LINUXIO_POINTER_TYPES + " property, '" + typeName + "'");
-			} else {
-				List<InputDevice> availableDevices = getAvailableDevices();
-				for (InputDevice dev : availableDevices) {
+		File[] files = getEventFiles(true);
+		DeviceClassifier classifier = DeviceClassifier.getInstance();
+		for (Type t : getPointerTypes()) {
+			for (File f : files) {
+				if (classifier.get(f.toPath()).isPointer(t)) {
 					if (LOG.isLoggable(Level.DEBUG))
-						LOG.log(Level.DEBUG, dev.getName());
-					Collection<EventCode> codes = dev.getCapabilities();
-					if (t == Type.EV_REL) {
-						if (codes == null || (!codes.contains(EventCode.REL_X) && !codes.contains(EventCode.REL_Y))) {
-							continue;
-						}
-					} else if (t == Type.EV_ABS) {
-						if (codes == null || (!codes.contains(EventCode.ABS_X) && !codes.contains(EventCode.ABS_Y))) {
-							continue;
-						}
-					}
-					if (LOG.isLoggable(Level.DEBUG))
-						LOG.log(Level.DEBUG, "Device has some " + t + " caps");
-					codes = Type.EV_KEY.get(codes);
-					int buttons = 0;
-					for (EventCode s : codes) {
-						if (s.isButton()) {
-							buttons++;
-						}
-					}
-					if (buttons > 0) {
-						pointerDevices.add(dev);
-					} else {
-						dev.close();
-					}
-
+						LOG.log(Level.DEBUG, "Device " + f + " has some " + t + " caps");
+					pointerDevices.add(new InputDevice(f));
 				}
 			}
 		}
@@ -347,31 +377,10 @@ public class InputDevice implements Closeable {
 	 */
 	public final static List<String> getAllKeyboardDeviceNames() throws IOException {
 		List<String> keyboardDeviceNames = new ArrayList<String>();
-		List<InputDevice> availableDevices = getAvailableDevices();
-		try {
-			for (InputDevice dev : availableDevices) {
-				if (LOG.isLoggable(Level.DEBUG))
-					LOG.log(Level.DEBUG, dev.getName());
-				Collection<EventCode> codes = Type.EV_KEY.get(dev.getCapabilities());
-				if (codes == null) {
-					continue;
-				}
-				int keys = 0;
-				for (EventCode s : codes) {
-					if (s.isButton()) {
-						// Has buttons, presumably not a keyboard
-						continue;
-					} else if (s.isKey()) {
-						keys++;
-					}
-				}
-				if (keys > 5) {
-					keyboardDeviceNames.add(dev.getFile().getFileName().toString());
-				}
-			}
-		} finally {
-			for (InputDevice d : availableDevices) {
-				d.close();
+		DeviceClassifier classifier = DeviceClassifier.getInstance();
+		for (File f : getEventFiles(true)) {
+			if (classifier.get(f.toPath()).is(DeviceClassifier.DeviceClass.KEYBOARD)) {
+				keyboardDeviceNames.add(f.getName());
 			}
 		}
 		return keyboardDeviceNames;
@@ -388,26 +397,10 @@ public class InputDevice implements Closeable {
 	 */
 	public final static List<InputDevice> getAllKeyboardDevices() throws IOException {
 		List<InputDevice> keyboardDevices = new ArrayList<InputDevice>();
-		for (InputDevice dev : getAvailableDevices()) {
-			if (LOG.isLoggable(Level.DEBUG))
-				LOG.log(Level.DEBUG, dev.getName());
-			Collection<EventCode> codes = Type.EV_KEY.get(dev.getCapabilities());
-			if (codes == null) {
-				continue;
-			}
-			int keys = 0;
-			for (EventCode s : codes) {
-				if (s.isButton()) {
-					// Has buttons, presumably not a keyboard
-					continue;
-				} else if (s.isKey()) {
-					keys++;
-				}
-			}
-			if (keys > 5) {
-				keyboardDevices.add(dev);
-			} else {
-				dev.close();
+		DeviceClassifier classifier = DeviceClassifier.getInstance();
+		for (File f : getEventFiles(true)) {
+			if (classifier.get(f.toPath()).is(DeviceClassifier.DeviceClass.KEYBOARD)) {
+				keyboardDevices.add(new InputDevice(f));
 			}
 		}
 		return keyboardDevices;
@@ -442,74 +435,118 @@ public class InputDevice implements Closeable {
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	public final static InputDevice getFirstKeyboardDevice() throws IOException {
-
-		List<InputDevice> availableDevices = getAvailableDevices();
-		InputDevice theDevice = null;
-		try {
-			for (InputDevice dev : availableDevices) {
-				if (LOG.isLoggable(Level.DEBUG))
-					LOG.log(Level.DEBUG, dev.getName());
-				Collection<EventCode> codes = Type.EV_KEY.get(dev.getCapabilities());
-				if (codes == null) {
-					continue;
-				}
-				int keys = 0;
-				for (EventCode s : codes) {
-					if (s.isButton()) {
-						// Has buttons, presumably not a keyboard
-						continue;
-					} else if (s.isKey()) {
-						keys++;
-					}
-				}
-				if (keys > 5) {
-					theDevice = dev;
-					break;
-				}
+		DeviceClassifier classifier = DeviceClassifier.getInstance();
+		for (File f : getEventFiles(true)) {
+			if (classifier.get(f.toPath()).is(DeviceClassifier.DeviceClass.KEYBOARD)) {
+				return new InputDevice(f);
 			}
-			if (theDevice != null) {
-				return theDevice;
+		}
+		throw new IOException("No devices that look like a keyboard could be found.");
+	}
+
+	private static List<Type> getPointerTypes() {
+		List<Type> types = new ArrayList<>();
+		for (String typeName : System
+				.getProperty(SYSPROP_LINUXIO_POINTER_TYPES, Type.EV_ABS.code() + "," + Type.EV_REL.code()).split(",")) {
+
+			// Parse the type name either by its
+			Type t = null;
+			try {
+				t = Type.fromCode(Integer.parseInt(typeName));
+			} catch (NumberFormatException nfe) {
+				t = Type.valueOf(typeName);
 			}
-		} finally {
-			for (InputDevice d : availableDevices) {
-				if (d != theDevice) {
-					d.close();
-				}
+
+			if (t == null) {
+				LOG.log(Level.WARNING,
+						"Unknown event type in " + SYSPROP_LINUXIO_POINTER_TYPES + " property, '" + typeName + "'");
+			} else {
+				types.add(t);
 			}
 		}
-
-		throw new IOException("No devices that look like a keyboard could be found.");
+		return types;
 	}
 
 	/**
 	 * Get a list of all available devices;.
+	 * <p>
+	 * Devices are opened and probed in parallel, by up to 4 threads (or as many
+	 * as there are processors if fewer). Set the system property
+	 * <b>linuxio.input.probeThreads</b> to change this, a value of 1 probes the
+	 * devices one after another on the calling thread. The devices are always
+	 * returned in order of their event number.
 	 *
 	 * @return the available devices
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	public final static List<InputDevice> getAvailableDevices() throws IOException {
-		final List<InputDevice> d = new ArrayList<InputDevice>();
-		File dir = getInputDeviceDirectory();
-		if (dir.exists()) {
-			if (dir.canRead()) {
-				for (File f : dir.listFiles(new FileFilter() {
-					@Override
-					public boolean accept(File pathname) {
-						return pathname.canRead() && pathname.getName().startsWith("event");
-					}
-				})) {
-					d.add(new InputDevice(f));
-				}
-			} else {
+		File[] files = getEventFiles(true);
+		int threads = Math.min(files.length, Integer.getInteger(PROBE_THREADS,
+				Math.min(DEFAULT_PROBE_THREADS, Runtime.getRuntime().availableProcessors())));
+		List<InputDevice> d = new ArrayList<InputDevice>(files.length);
+		if (threads < 2) {
+			for (File f : files) {
+				d.add(new InputDevice(f));
+			}
+			return d;
+		}
 
-				if (System.getProperties().containsKey(INPUT_DEVICES)) {
-					throw new IOException("The directory '" + dir + "' specified by the system property "
-							+ INPUT_DEVICES + " for uinput devices cannot be read.");
-				} else {
-					throw new IOException("Directory '" + dir + "' for uinput devices cannot be read.");
+		ExecutorService executor = getProbeExecutor(threads);
+		List<Future<InputDevice>> futures = new ArrayList<>(files.length);
+		for (File f : files) {
+			futures.add(executor.submit(() -> new InputDevice(f)));
+		}
+		Throwable error = null;
+		boolean interrupted = false;
+		for (Future<InputDevice> future : futures) {
+			while (true) {
+				try {
+					d.add(future.get());
+					break;
+				} catch (InterruptedException ie) {
+					/* Every device must be accounted for, so they can be closed on error */
+					interrupted = true;
+				} catch (ExecutionException ee) {
+					if (error == null)
+						error = ee.getCause();
+					break;
 				}
 			}
-		} else {
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (error != null) {
+			for (InputDevice dev : d) {
+				try {
+					dev.close();
+				} catch (IOException | RuntimeException e) {
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, "Failed to close " + dev.getFile(), e);
+				}
+			}
+			if (error instanceof IOException)
+				throw (IOException) error;
+			else if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			else if (error instanceof Error)
+				throw (Error) error;
+			throw new IOException("Failed to probe devices.", error);
+		}
+		return d;
+	}
+
+	/**
+	 * Get the <code>event*</code> files in the input device directory, in order
+	 * of their event number.
+	 *
+	 * @param readable only include files that may be read
+	 * @return files
+	 * @throws IOException if the directory cannot be read
+	 */
+	static File[] getEventFiles(boolean readable) throws IOException {
+		File dir = getInputDeviceDirectory();
+		if (!dir.exists()) {
 			if (System.getProperties().containsKey(INPUT_DEVICES)) {
 				throw new IOException("The directory '" + dir + "' specified by the system property " + INPUT_DEVICES
 						+ " for uinput devices does not exist.");
@@ -518,15 +555,134 @@ public class InputDevice implements Closeable {
 						+ INPUT_DEVICES + " to the correct location.");
 			}
 		}
-		Collections.sort(d, (a, b) -> Integer.valueOf(a.file.getFileName().toString().replaceAll("[^\\d.]", ""))
-				.compareTo(Integer.valueOf(b.file.getFileName().toString().replaceAll("[^\\d.]", ""))));
-		return d;
+		File[] files = dir.canRead() ? dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File pathname) {
+				return (!readable || pathname.canRead()) && pathname.getName().startsWith("event");
+			}
+		}) : null;
+		if (files == null) {
+			if (System.getProperties().containsKey(INPUT_DEVICES)) {
+				throw new IOException("The directory '" + dir + "' specified by the system property " + INPUT_DEVICES
+						+ " for uinput devices cannot be read.");
+			} else {
+				throw new IOException("Directory '" + dir + "' for uinput devices cannot be read.");
+			}
+		}
+
+		/*
+		 * Parse each event number once, and sort on the number with the listing
+		 * position in the low bits, so equal numbers keep their listed order
+		 */
+		long[] keys = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			keys[i] = (long) eventNumber(files[i].getName()) << 32 | i;
+		}
+		Arrays.sort(keys);
+		File[] sorted = new File[files.length];
+		for (int i = 0; i < keys.length; i++) {
+			sorted[i] = files[(int) keys[i]];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Get the number of an event device from its file name, e.g. 12 for
+	 * <code>event12</code>.
+	 *
+	 * @param name file name
+	 * @return event number, or {@link Integer#MAX_VALUE} if there is none
+	 */
+	static int eventNumber(String name) {
+		int number = 0;
+		boolean found = false;
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (ch >= '0' && ch <= '9') {
+				number = number * 10 + (ch - '0');
+				found = true;
+			}
+		}
+		return found ? number : Integer.MAX_VALUE;
+	}
+
+	private static synchronized ExecutorService getProbeExecutor(int threads) {
+		if (probeExecutor == null || probeExecutor.getMaximumPoolSize() < threads) {
+			AtomicInteger count = new AtomicInteger();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), r -> {
+						Thread t = new Thread(r, "InputProbe-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+			/* Nothing is kept around between enumerations */
+			executor.allowCoreThreadTimeOut(true);
+			if (probeExecutor != null)
+				probeExecutor.shutdown();
+			probeExecutor = executor;
+		}
+		return probeExecutor;
 	}
 
-	private static File getInputDeviceDirectory() {
+	static File getInputDeviceDirectory() {
 		return new File(System.getProperty(INPUT_DEVICES, "/dev/input"));
 	}
 
+	/**
+	 * Get a list of all available devices, described using sysfs only. None of
+	 * the devices are opened, and permission to read them is not needed. See
+	 * {@link #probe(Path)}.
+	 *
+	 * @return the available devices
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public final static List<InputDevice> probeAvailableDevices() throws IOException {
+		Path root = SysfsInput.getDefaultRoot();
+		List<InputDevice> d = new ArrayList<InputDevice>();
+		for (File f : getEventFiles(false)) {
+			d.add(probe(f.toPath(), root));
+		}
+		return d;
+	}
+
+	/**
+	 * Describe an existing device using only what the kernel publishes in sysfs
+	 * (its name, IDs, capabilities and properties), without opening the device
+	 * node. The device node is opened when it is first needed, i.e. when events
+	 * are read, when it is grabbed, when its absolute axis information is asked
+	 * for, or when it is added to an {@link InputController}. It may also be
+	 * opened explicitly using {@link #open()}. Until then, the driver version is
+	 * <code>null</code>.
+	 *
+	 * @param file device file
+	 * @return device
+	 * @throws IOException if the device cannot be found in sysfs
+	 */
+	public static InputDevice probe(Path file) throws IOException {
+		return probe(file, SysfsInput.getDefaultRoot());
+	}
+
+	/**
+	 * Describe an existing device using only what the kernel publishes in sysfs.
+	 * See {@link #probe(Path)}.
+	 *
+	 * @param file  device file
+	 * @param sysfs sysfs input class directory, usually <i>/sys/class/input</i>
+	 * @return device
+	 * @throws IOException if the device cannot be found in sysfs
+	 */
+	public static InputDevice probe(Path file, Path sysfs) throws IOException {
+		SysfsInput info = new SysfsInput(sysfs, file.getFileName().toString());
+		long[][] capabilities = new long[EventCode.Ev.EV_CNT][];
+		capabilities[EventCode.Ev.EV_SYN] = info.capabilities(EventCode.Ev.EV_SYN);
+		for (int i = 1; i < EventCode.Ev.EV_CNT; i++) {
+			if (Bits.test(capabilities[EventCode.Ev.EV_SYN], i))
+				capabilities[i] = info.capabilities(i);
+		}
+		return new InputDevice(file, info.name(), null, info.id("bustype"), info.id("vendor"), info.id("product"),
+				info.id("version"), capabilities, info.properties());
+	}
+
 	/**
 	 * Open an existing device given the path for it's file. If the path starts with
 	 * a slash, that exact path will be used. If it doesn't, and the path relative
@@ -577,12 +733,6 @@ public class InputDevice implements Closeable {
 		CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGNAME(nameBytes.length), nameBytes);
 		name = Native.toString(nameBytes);
 
-		// Get the driver version
-		IntByReference v = new IntByReference();
-		CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGVERSION, v);
-		int vv = v.getValue();
-		inputDriverVersion = String.format("%d.%d.%d", vv >> 16, vv >> 8 & 0xff, vv & 0xff);
-
 		// Get the device IDs
 		short[] deviceId = new short[4];
 		CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGID, deviceId);
@@ -593,6 +743,43 @@ public class InputDevice implements Closeable {
 
 	}
 
+	/**
+	 * Describe an existing device that has already been probed, without opening
+	 * it. The device node is opened when it is first needed.
+	 *
+	 * @param file          device file
+	 * @param name          name
+	 * @param driverVersion driver version, or <code>null</code> if not known
+	 * @param bus           bus
+	 * @param vendor        vendor
+	 * @param product       product
+	 * @param version       version
+	 * @param capabilities  bitset of capabilities for each event type, any may be
+	 *                      <code>null</code>
+	 * @param properties    bitset of properties
+	 */
+	InputDevice(Path file, String name, String driverVersion, int bus, int vendor, int product, int version,
+			long[][] capabilities, long[] properties) {
+		this.file = file;
+		this.read = true;
+		this.deferred = true;
+		this.name = name;
+		this.inputDriverVersion = driverVersion;
+		this.bus = bus;
+		this.vendor = vendor;
+		this.product = product;
+		this.version = version;
+		for (int i = 0; i < EventCode.Ev.EV_CNT && i < capabilities.length; i++) {
+			if (capabilities[i] != null)
+				caps.set(i, capabilities[i]);
+		}
+		for (int i = 0; i <= EventCode.Property.INPUT_PROP_MAX.code(); i++) {
+			if (Bits.test(properties, i))
+				this.props.add(Property.fromCode(i));
+		}
+		capsRead = true;
+	}
+
 	/**
 	 * Create a new virtual device for emitting events.
 	 * 
@@ -623,61 +810,104 @@ public class InputDevice implements Closeable {
 	}
 
 	protected void readCaps() throws IOException {
-		// Get the supported events
-		NativeLong[][] bit = new NativeLong[EventCode.Ev.EV_MAX][NBITS(EventCode.KEY_MAX.code())];
-		CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGBIT(0, EventCode.Ev.EV_MAX), bit[0]);
-
-		for (int i = 0; i < EventCode.Ev.EV_MAX; i++) {
-			Type t = Type.fromCode(i);
-			if (test_bit(i, bit[0])) {
-				if (LOG.isLoggable(Level.DEBUG))
-					LOG.log(Level.DEBUG, String.format("  Event type %d (%s)\n", i, Type.fromCode((short) i)));
-				// if (!i) continue;
-				CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGBIT(i, EventCode.KEY_MAX.code()), bit[i]);
-				for (int j = 0; j < EventCode.KEY_MAX.code(); j++) {
-					if (test_bit(j, bit[i])) {
-						if (LOG.isLoggable(Level.DEBUG))
-							LOG.log(Level.DEBUG, String.format("    Event code %d (%s)", j,
-									EventCode.hasCode(i, (short) j) ? EventCode.fromCode(i, j) : ""));
-						try {
-							EventCode eventCode = EventCode.fromCode(t.code(), j);
-							addCapability(eventCode);
-							if (t.equals(Type.EV_ABS)) {
-								input_absinfo abs = new input_absinfo();
-								checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGABS(j), abs));
-								Map<EventCode.AbsoluteValue, Integer> map = absoluteValues.get(eventCode);
-								if (map == null) {
-									map = new TreeMap<>();
-									absoluteValues.put(eventCode, map);
-								}
-								map.put(EventCode.AbsoluteValue.MIN, abs.minimum);
-								map.put(EventCode.AbsoluteValue.MAX, abs.maximum);
-								map.put(EventCode.AbsoluteValue.VALUE, abs.value);
-								if (abs.fuzz > 0)
-									map.put(EventCode.AbsoluteValue.FUZZ, abs.fuzz);
-								if (abs.flat > 0)
-									map.put(EventCode.AbsoluteValue.FLAT, abs.flat);
-								if (abs.resolution > 0)
-									map.put(EventCode.AbsoluteValue.FLAT, abs.resolution);
-							}
-						} catch (IllegalArgumentException iae) {
-							LOG.log(Level.DEBUG, String.format(
-									"Missing UInput constant for type %d and code %d for device %s", i, j, file));
-						}
-					}
-				}
-			}
+		// Get the supported event types, then the supported codes of each type
+		Memory mem = new Memory(Bits.nativeBytes(InputState.KEY_CNT));
+		mem.clear();
+		checkBitIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGBIT(0, Bits.nativeBytes(EventCode.Ev.EV_CNT)), mem));
+		long[] types = Bits.fromNative(mem, EventCode.Ev.EV_CNT);
+
+		/*
+		 * EV_SYN has always been reported with the event types as its codes, so
+		 * keep doing the same
+		 */
+		caps.set(EventCode.Ev.EV_SYN, types);
+
+		for (int i = 1; i < EventCode.Ev.EV_CNT; i++) {
+			int count = Type.count(i);
+			if (count == 0 || !Bits.test(types, i))
+				continue;
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, String.format("  Event type %d (%s)", i, Type.fromCode(i)));
+			mem.clear();
+			checkBitIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGBIT(i, Bits.nativeBytes(count)), mem));
+			caps.set(i, Bits.fromNative(mem, count));
 		}
 
 		// Get properties
-		NativeLong[] props = new NativeLong[EventCode.Property.INPUT_PROP_MAX.code()];
-		CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGPROP(EventCode.Property.INPUT_PROP_MAX.code()), props);
-		for (int i = 0; i < EventCode.Property.INPUT_PROP_MAX.code(); i++) {
-			if (test_bit(i, props))
+		int propCount = EventCode.Property.INPUT_PROP_MAX.code() + 1;
+		mem.clear();
+		checkBitIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGPROP(Bits.nativeBytes(propCount)), mem));
+		long[] propBits = Bits.fromNative(mem, propCount);
+		for (int i = 0; i < propCount; i++) {
+			if (Bits.test(propBits, i))
 				this.props.add(Property.fromCode(i));
 		}
 	}
 
+	/**
+	 * Read the limits and current value of every absolute axis the device has.
+	 * This is only done when they are first asked for, as it takes an ioctl per
+	 * axis.
+	 *
+	 * @throws IOException on error
+	 */
+	protected void readAbsoluteValues() throws IOException {
+		ensureOpen();
+		input_absinfo abs = new input_absinfo();
+		long[] codes = caps.get(EventCode.Ev.EV_ABS);
+		for (int w = 0; w < codes.length; w++) {
+			for (long word = codes[w]; word != 0; word &= word - 1) {
+				int j = (w << 6) + Long.numberOfTrailingZeros(word);
+				if (!EventCode.hasCode(EventCode.Ev.EV_ABS, (short) j)) {
+					LOG.log(Level.DEBUG, String.format("Missing UInput constant for type %d and code %d for device %s",
+							EventCode.Ev.EV_ABS, j, file));
+					continue;
+				}
+				checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGABS(j), abs));
+				Map<EventCode.AbsoluteValue, Integer> map = new TreeMap<>();
+				map.put(EventCode.AbsoluteValue.MIN, abs.minimum);
+				map.put(EventCode.AbsoluteValue.MAX, abs.maximum);
+				map.put(EventCode.AbsoluteValue.VALUE, abs.value);
+				if (abs.fuzz > 0)
+					map.put(EventCode.AbsoluteValue.FUZZ, abs.fuzz);
+				if (abs.flat > 0)
+					map.put(EventCode.AbsoluteValue.FLAT, abs.flat);
+				if (abs.resolution > 0)
+					map.put(EventCode.AbsoluteValue.RESOLUTION, abs.resolution);
+				absoluteValues.put(EventCode.fromCode(EventCode.Ev.EV_ABS, j), map);
+			}
+		}
+	}
+
+	/**
+	 * Open the device node of a device described using {@link #probe(Path)} if it
+	 * has not been opened yet.
+	 *
+	 * @throws IOException if the device cannot be opened
+	 */
+	void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException(String.format("%s has been closed.", file));
+		if (deferred)
+			openForRead(file);
+	}
+
+	/**
+	 * Get whether this device has been closed, including a probed device that
+	 * was closed without ever being opened.
+	 *
+	 * @return closed
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	private void checkBitIoctl(int status) throws IOException {
+		if (status < 0) {
+			throw new IOException(String.format("ioctl failed with %d.", Native.getLastError()));
+		}
+	}
+
 	private void openForWrite() throws IOException {
 		if (LOG.isLoggable(Level.DEBUG))
 			LOG.log(Level.DEBUG, "Opening uinput " + file + " for " + getClass());
@@ -686,6 +916,7 @@ public class InputDevice implements Closeable {
 			throw new IOException(file + " cannot be opened for " + getClass());
 		}
 		open = true;
+		closed = false;
 
 		IntByReference driverVersion = new IntByReference();
 		int rc = CLib.INSTANCE.ioctl(fd, UInput.UI_GET_VERSION, driverVersion.getPointer());
@@ -738,6 +969,42 @@ public class InputDevice implements Closeable {
 
 	}
 
+	/**
+	 * Get the value of a multi-touch axis for every slot. The first element of
+	 * the buffer must be the axis code, the remaining elements will be filled
+	 * with the value for each slot.
+	 *
+	 * @param buf buffer
+	 * @throws IOException on error
+	 */
+	void getMultiTouchSlots(int[] buf) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		ensureOpen();
+		if (CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGMTSLOTS(buf.length * 4), buf) < 0) {
+			throw new IOException(String.format("ioctl failed with %d.", Native.getLastError()));
+		}
+	}
+
+	/**
+	 * Query the current value of an absolute axis from the kernel. Unlike
+	 * {@link #getAbsoluteValues()}, this is never cached.
+	 *
+	 * @param code axis code
+	 * @return value
+	 * @throws IOException on error
+	 */
+	int queryAbsoluteValue(int code) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		ensureOpen();
+		input_absinfo abs = new input_absinfo();
+		checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGABS(code), abs));
+		return abs.value;
+	}
+
 	private void checkIoctl(int status) throws IOException {
 		if (status != 0) {
 			throw new IOException(String.format("ioctl failed with %d.", Native.getLastError()));
@@ -747,11 +1014,130 @@ public class InputDevice implements Closeable {
 	private void openForRead(Path file) throws IOException {
 		if (LOG.isLoggable(Level.DEBUG))
 			LOG.log(Level.DEBUG, "Opening existing device " + file + " for " + getClass());
-		fd = CLib.INSTANCE.open(file.toAbsolutePath().toString(), CLib.O_RDWR | CLib.O_NOCTTY);
+		fd = CLib.INSTANCE.open(file.toAbsolutePath().toString(),
+				CLib.O_RDWR | CLib.O_NOCTTY | (nonBlocking ? CLib.O_NONBLOCK : 0));
 		if (fd == -1) {
 			throw new IOException(file + " is not a valid input device for " + getClass());
 		}
 		open = true;
+		deferred = false;
+		closed = false;
+		if (inputDriverVersion == null) {
+			// Get the driver version
+			IntByReference v = new IntByReference();
+			CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCGVERSION, v);
+			int vv = v.getValue();
+			inputDriverVersion = String.format("%d.%d.%d", vv >> 16, vv >> 8 & 0xff, vv & 0xff);
+		}
+		if (clockId != CLib.CLOCK_REALTIME) {
+			checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCSCLOCKID, new int[] { clockId }));
+		}
+	}
+
+	/**
+	 * Set whether reads from this device block when there are no events. In
+	 * non-blocking mode, {@link #tryNextEvent()} and the <code>drain()</code>
+	 * methods may be used to read everything the kernel has queued without ever
+	 * waiting, and the bulk read methods return zero when there is nothing to
+	 * read. The mode is remembered and used if the device is re-opened.
+	 *
+	 * @param nonBlocking non-blocking
+	 * @throws IOException if the mode cannot be changed
+	 */
+	public void setNonBlocking(boolean nonBlocking) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		if (open && nonBlocking != this.nonBlocking) {
+			int flags = CLib.INSTANCE.fcntl(fd, CLib.F_GETFL, 0);
+			if (flags == -1 || CLib.INSTANCE.fcntl(fd, CLib.F_SETFL,
+					nonBlocking ? flags | CLib.O_NONBLOCK : flags & ~CLib.O_NONBLOCK) == -1) {
+				throw new IOException(String.format("fcntl failed with %d.", Native.getLastError()));
+			}
+		}
+		this.nonBlocking = nonBlocking;
+	}
+
+	/**
+	 * Get whether reads from this device block when there are no events.
+	 *
+	 * @return non-blocking
+	 */
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+
+	/**
+	 * Set the clock used by the kernel to timestamp events read from this device,
+	 * for example {@link CLib#CLOCK_MONOTONIC}. By default this is
+	 * {@link CLib#CLOCK_REALTIME}, which may jump when the system time is
+	 * changed. The clock is remembered and set again if the device is re-opened.
+	 *
+	 * @param clockId clock ID
+	 * @throws IOException if the clock cannot be set
+	 */
+	public void setClock(int clockId) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		if (open) {
+			checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCSCLOCKID, new int[] { clockId }));
+		}
+		this.clockId = clockId;
+	}
+
+	/**
+	 * Get the clock used by the kernel to timestamp events read from this device.
+	 *
+	 * @return clock ID
+	 */
+	public int getClock() {
+		return clockId;
+	}
+
+	/**
+	 * Get how long ago an event read from this device happened, i.e. the time
+	 * from the kernel timestamping the event until now, in nanoseconds. This is
+	 * measured using the same clock as the kernel uses for this device, so is
+	 * best used with {@link CLib#CLOCK_MONOTONIC} (see {@link #setClock(int)}).
+	 * Nothing is allocated by this method.
+	 *
+	 * @param sec  seconds part of the event time
+	 * @param usec microseconds part of the event time
+	 * @return latency in nanoseconds
+	 */
+	public long getLatency(long sec, long usec) {
+		return clockNanos(clockId) - (sec * 1000000000 + usec * 1000);
+	}
+
+	/**
+	 * Get how long ago an event read from this device happened, in nanoseconds.
+	 * See {@link #getLatency(long, long)}.
+	 *
+	 * @param event event
+	 * @return latency in nanoseconds
+	 */
+	public long getLatency(Event event) {
+		return clockNanos(clockId) - event.getNanoTime();
+	}
+
+	/**
+	 * Get how long ago the <code>SYN_REPORT</code> that completed a frame read from
+	 * this device happened, in nanoseconds. See {@link #getLatency(long, long)}.
+	 *
+	 * @param frame frame
+	 * @return latency in nanoseconds
+	 */
+	public long getLatency(EventFrame frame) {
+		return getLatency(frame.getSec(), frame.getUSec());
+	}
+
+	private static long clockNanos(int clockId) {
+		Memory ts = TIMESPEC.get();
+		if (CLib.Direct.clock_gettime(clockId, ts) != 0) {
+			throw new IllegalStateException(String.format("clock_gettime failed with %d.", Native.getLastError()));
+		}
+		return nativeLong(ts, 0) * 1000000000 + nativeLong(ts, Native.LONG_SIZE);
 	}
 
 	/**
@@ -806,6 +1192,14 @@ public class InputDevice implements Closeable {
 	public Map<EventCode, Map<AbsoluteValue, Integer>> getAbsoluteValues() {
 		if (read || open) {
 			checkCapsRead();
+			if (read && !absRead) {
+				try {
+					readAbsoluteValues();
+				} catch (IOException e) {
+					throw new IllegalStateException("Failed to read absolute values.", e);
+				}
+				absRead = true;
+			}
 			return Collections.unmodifiableMap(absoluteValues);
 		} else
 			return absoluteValues;
@@ -845,13 +1239,113 @@ public class InputDevice implements Closeable {
 	 */
 	public Set<EventCode> getCapabilities(EventCode.Type type) {
 		Set<EventCode> l = new LinkedHashSet<>();
-		for (EventCode code : getCapabilities()) {
-			if (code.type() == type)
-				l.add(code);
+		if (read)
+			checkCapsRead();
+		long[] codes = caps.get(type.code());
+		for (int w = 0; w < codes.length; w++) {
+			for (long word = codes[w]; word != 0; word &= word - 1) {
+				int code = (w << 6) + Long.numberOfTrailingZeros(word);
+				if (EventCode.hasCode(type, (short) code))
+					l.add(EventCode.fromCode(type, code));
+			}
 		}
 		return l;
 	}
 
+	/**
+	 * Get a copy of the bitset of capabilities the device has for an event type.
+	 *
+	 * @param type type code
+	 * @return bitset
+	 */
+	long[] getCapabilityBits(int type) {
+		if (read)
+			checkCapsRead();
+		return caps.get(type).clone();
+	}
+
+	/**
+	 * Get whether the device has (or should have) any capabilities of the given
+	 * type.
+	 *
+	 * @param type type code
+	 * @return has capability
+	 */
+	public boolean hasCapability(int type) {
+		if (read)
+			checkCapsRead();
+		return caps.contains(type);
+	}
+
+	/**
+	 * Get whether the device has (or should have) a capability. Unlike
+	 * {@link #getCapabilities()}, this also works for codes that have no
+	 * {@link EventCode} constant.
+	 *
+	 * @param type type code
+	 * @param code event code
+	 * @return has capability
+	 */
+	public boolean hasCapability(int type, int code) {
+		if (read)
+			checkCapsRead();
+		return caps.contains(type, code);
+	}
+
+	/**
+	 * Get whether the device has (or should have) a capability.
+	 *
+	 * @param code event code
+	 * @return has capability
+	 */
+	public boolean hasCapability(EventCode code) {
+		return hasCapability(code.typeCode(), code.code());
+	}
+
+	/**
+	 * Set which events the kernel delivers when reading from this device. Events
+	 * not accepted by the filter are discarded by the kernel, so they never wake
+	 * up a poll or need to be read. Synchronisation events are always delivered.
+	 * The mask applies to this device's file descriptor only, other readers of
+	 * the same device are not affected.
+	 * <p>
+	 * As masked events are never read, {@link #getState()} stops tracking the
+	 * masked codes.
+	 * <p>
+	 * Requires Linux 4.4 or later.
+	 *
+	 * @param filter filter, or <code>null</code> to deliver all events
+	 * @throws IOException if the mask cannot be set
+	 */
+	public void setEventMask(EventFilter filter) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		ensureOpen();
+		if (maskBuffer == null) {
+			maskBuffer = new Memory(Bits.nativeBytes(InputState.KEY_CNT));
+		}
+		Input.input_mask mask = new Input.input_mask();
+		for (int type = 0; type < EventCode.Ev.EV_CNT; type++) {
+			if (type == EventCode.Ev.EV_REP) {
+				/* Cannot be masked */
+				continue;
+			}
+			int bits = type == EventCode.Ev.EV_SYN ? EventCode.Ev.EV_CNT : Type.count(type);
+			if (bits == 0)
+				continue;
+			maskBuffer.clear();
+			if (filter == null)
+				Bits.toNative(EventFilter.all(bits), maskBuffer, bits);
+			else
+				filter.toNative(type, maskBuffer, bits);
+			mask.type = type;
+			mask.codes_size = Bits.nativeBytes(bits);
+			mask.codes_ptr = Pointer.nativeValue(maskBuffer);
+			checkIoctl(CLib.INSTANCE.ioctl(fd, Input.Macros.EVIOCSMASK, mask));
+		}
+	}
+
 	/**
 	 * Get the path to file this input device is accessed by.
 	 *
@@ -873,6 +1367,7 @@ public class InputDevice implements Closeable {
 		if (grabbed) {
 			throw new IllegalStateException("Already grabbed " + file + ".");
 		}
+		ensureOpen();
 		if (LOG.isLoggable(Level.DEBUG))
 			LOG.log(Level.DEBUG, "Grabbing " + file);
 
@@ -1113,38 +1608,416 @@ public class InputDevice implements Closeable {
 
 	/**
 	 * Read the next event, blocking if there are none. <code>null</code> will be
-	 * returned the device closes.
+	 * returned the device closes. In non-blocking mode, this is the same as
+	 * {@link #tryNextEvent()}.
 	 *
 	 * @return next input event or <code>null</code>
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	public Event nextEvent() throws IOException {
+		if (nonBlocking) {
+			return tryNextEvent();
+		}
+		while (queued.isEmpty()) {
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Waiting for event (" + EVENT_SIZE + " bytes)");
+			readEvents(queued::add, 1);
+		}
+		return queued.poll();
+	}
+
+	/**
+	 * Read the next event if there is one, without blocking. <code>null</code>
+	 * will be returned if there are no events queued. The device must be in
+	 * non-blocking mode, see {@link #setNonBlocking(boolean)}.
+	 *
+	 * @return next input event or <code>null</code>
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public Event tryNextEvent() throws IOException {
+		checkNonBlocking();
+		while (queued.isEmpty()) {
+			if (readEvents(queued::add, 1) == 0) {
+				return null;
+			}
+		}
+		return queued.poll();
+	}
+
+	/**
+	 * Read all events queued by the kernel, passing each one to the supplied
+	 * {@link EventSink}, until there are none left. The device must be in
+	 * non-blocking mode, see {@link #setNonBlocking(boolean)}.
+	 *
+	 * @param sink sink to receive events
+	 * @return number of events read
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int drain(EventSink sink) throws IOException {
+		checkNonBlocking();
+		int total = 0;
+		int count;
+		while ((count = readEvents(sink, DEFAULT_MAX_EVENTS)) > 0) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Read all events queued by the kernel, passing each one to the supplied
+	 * {@link RawEventSink}, until there are none left. The device must be in
+	 * non-blocking mode, see {@link #setNonBlocking(boolean)}. Nothing is
+	 * allocated by this method.
+	 *
+	 * @param sink sink to receive events
+	 * @return number of events read
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int drain(RawEventSink sink) throws IOException {
+		checkNonBlocking();
+		int total = 0;
+		int count;
+		while ((count = readEvents(sink, DEFAULT_MAX_EVENTS)) > 0) {
+			total += count;
+		}
+		return total;
+	}
+
+	private void checkNonBlocking() {
+		if (!nonBlocking) {
+			throw new IllegalStateException("This device is not in non-blocking mode.");
+		}
+	}
+
+	/**
+	 * Read up to <code>max</code> events, blocking if there are none. All events
+	 * that are already queued by the kernel (up to the maximum) are read using a
+	 * single <code>read()</code> into a buffer that is re-used for the life of this
+	 * device.
+	 *
+	 * @param max maximum number of events to read
+	 * @return events read, will contain at least one event
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public List<Event> nextEvents(int max) throws IOException {
+		List<Event> events = new ArrayList<>(max);
+		readEvents(events::add, max);
+		return events;
+	}
+
+	/**
+	 * Read up to <code>max</code> events, blocking if there are none, passing each
+	 * one to the supplied {@link EventSink}. All events that are already queued by
+	 * the kernel (up to the maximum) are read using a single <code>read()</code>
+	 * into a buffer that is re-used for the life of this device, and then decoded
+	 * in one pass.
+	 * <p>
+	 * Events with codes that are unknown to {@link EventCode} are logged and
+	 * skipped.
+	 *
+	 * @param sink sink to receive events
+	 * @param max  maximum number of events to read
+	 * @return number of events read, only zero in non-blocking mode
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int readEvents(EventSink sink, int max) throws IOException {
+		return readEvents((type, code, value, sec, usec) -> {
+			Event event;
+			try {
+				event = event(type, code, value, sec, usec);
+			} catch (IllegalArgumentException iae) {
+				LOG.log(Level.WARNING, "Failed to process event.", iae);
+				return;
+			}
+			sink.event(event);
+		}, max);
+	}
+
+	/**
+	 * Read up to <code>max</code> events, blocking if there are none, passing each
+	 * one to the supplied {@link RawEventSink} as primitives. This is the same as
+	 * {@link #readEvents(EventSink, int)}, except that once the read buffer has
+	 * been allocated, nothing further is allocated by this method.
+	 *
+	 * @param sink sink to receive events
+	 * @param max  maximum number of events to read
+	 * @return number of events read, only zero in non-blocking mode
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int readEvents(RawEventSink sink, int max) throws IOException {
+		int count = fill(max);
+		Memory buf = eventBuffer;
+		for (int i = 0; i < count; i++) {
+			long offset = (long) i * EVENT_SIZE;
+			int type = buf.getShort(offset + EVENT_TYPE_OFFSET) & 0xffff;
+			int code = buf.getShort(offset + EVENT_CODE_OFFSET) & 0xffff;
+			int value = buf.getInt(offset + EVENT_VALUE_OFFSET);
+			long sec = nativeLong(buf, offset);
+			long usec = nativeLong(buf, offset + Native.LONG_SIZE);
+			if (type == EventCode.Ev.EV_SYN) {
+				if (resyncing) {
+					if (code == SYN_REPORT) {
+						resyncing = false;
+						/*
+						 * Anything read after this is already part of the state the
+						 * kernel is about to report, so would be applied twice
+						 */
+						drain();
+						resync(sink, sec, usec);
+						break;
+					}
+					continue;
+				} else if (code == SYN_REPORT) {
+					commitState();
+				} else if (code == SYN_DROPPED) {
+					dropped++;
+					resyncing = true;
+					/* The partial frame is lost, so must not count towards the state */
+					pendingState = 0;
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, "Events dropped by kernel for " + file + ", will resync");
+				}
+			} else if (resyncing) {
+				continue;
+			} else {
+				deferState(type, code, value);
+			}
+			sink.event(type, code, value, sec, usec);
+		}
+		return count;
+	}
+
+	/**
+	 * Get how many times the kernel has dropped events for this device because
+	 * they were not read quickly enough, i.e. the number of
+	 * <code>SYN_DROPPED</code> events seen.
+	 * <p>
+	 * When this happens, the <code>SYN_DROPPED</code> is passed on (so any partial
+	 * frame may be discarded), and all events up to the next
+	 * <code>SYN_REPORT</code> are discarded, as is anything else already queued
+	 * by then. The current key, LED, switch and absolute axis state is then
+	 * queried from the kernel, and synthetic events are delivered for anything
+	 * that changed since the last complete frame (including changes that were
+	 * only in the discarded partial frame), always followed by a
+	 * <code>SYN_REPORT</code>. Multi-touch slot state is not resynchronised.
+	 *
+	 * @return dropped count
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * Get the current state of the keys, buttons, LEDs, switches and absolute
+	 * axes of this device, as tracked from the events read so far. The state is
+	 * updated a frame at a time, when each <code>SYN_REPORT</code> is read.
+	 * <p>
+	 * Events the kernel has been told not to deliver (see
+	 * {@link #setEventMask(EventFilter)}, which {@link InputController} uses for
+	 * filtered subscriptions) are never read, so the state of those codes stays
+	 * as it was until the state is next queried, either by {@link #seedState()}
+	 * or after the kernel drops events.
+	 *
+	 * @return state
+	 */
+	public InputState getState() {
+		return state;
+	}
+
+	/**
+	 * Query the current key, LED, switch and absolute axis state from the kernel
+	 * and use it as the starting point for {@link #getState()}. This should be
+	 * called before events start being read (or from the thread that reads
+	 * them).
+	 *
+	 * @throws IOException if the state cannot be queried
+	 */
+	public void seedState() throws IOException {
 		if (!read) {
 			throw new IllegalStateException("This device is not a reading.");
 		}
-		Input.input_event ev = new Input.input_event();
-		int size = ev.size();
+		ensureOpen();
+		resync(null, 0, 0);
+	}
+
+	private void resync(RawEventSink sink, long sec, long usec) throws IOException {
+		int deltas = resyncBits(sink, EventCode.Ev.EV_KEY, Input.Macros.EVIOCGKEY(Bits.nativeBytes(InputState.KEY_CNT)),
+				state.keys, InputState.KEY_CNT, sec, usec);
+		deltas += resyncBits(sink, EventCode.Ev.EV_LED, Input.Macros.EVIOCGLED(Bits.nativeBytes(EventCode.LED_CNT.code())),
+				state.leds, EventCode.LED_CNT.code(), sec, usec);
+		deltas += resyncBits(sink, EventCode.Ev.EV_SW, Input.Macros.EVIOCGSW(Bits.nativeBytes(EventCode.SW_CNT.code())),
+				state.switches, EventCode.SW_CNT.code(), sec, usec);
+		for (EventCode code : getCapabilities(Type.EV_ABS)) {
+			if (code.code() >= EventCode.ABS_MT_SLOT.code()) {
+				/* Per slot multi-touch axes cannot be resynced with EVIOCGABS */
+				continue;
+			}
+			int value = queryAbsoluteValue(code.code());
+			if (value != state.abs.get(code.code())) {
+				state.abs.lazySet(code.code(), value);
+				if (sink != null)
+					sink.event(EventCode.Ev.EV_ABS, code.code(), value, sec, usec);
+				deltas++;
+			}
+		}
+		if (sink != null) {
+			/* Always close the resync, so any partial frame is ended */
+			sink.event(EventCode.Ev.EV_SYN, SYN_REPORT, 0, sec, usec);
+		}
 		if (LOG.isLoggable(Level.DEBUG))
-			LOG.log(Level.DEBUG, "Waiting for event (" + size + " bytes)");
-		Pointer pointer = ev.getPointer();
-		NativeLong read = CLib.INSTANCE.read(fd, pointer, new NativeLong(size));
-		// ev.read();
-		if (read.longValue() < 1) {
+			LOG.log(Level.DEBUG, "Resynced " + file + " with " + deltas + " changes");
+	}
+
+	/**
+	 * Read and discard everything queued by the kernel for this device.
+	 */
+	private void drain() throws IOException {
+		int flags = 0;
+		if (!nonBlocking) {
+			flags = CLib.INSTANCE.fcntl(fd, CLib.F_GETFL, 0);
+			if (flags == -1 || CLib.INSTANCE.fcntl(fd, CLib.F_SETFL, flags | CLib.O_NONBLOCK) == -1)
+				throw new IOException(String.format("fcntl failed with %d.", Native.getLastError()));
+		}
+		try {
+			int drained = 0;
+			int read;
+			while ((read = CLib.Direct.read(fd, eventBuffer, (int) eventBuffer.size())) > 0)
+				drained += read / EVENT_SIZE;
+			if (drained > 0 && LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Discarded " + drained + " events from " + file + " before resyncing");
+		} finally {
+			if (!nonBlocking)
+				CLib.INSTANCE.fcntl(fd, CLib.F_SETFL, flags);
+		}
+	}
+
+	private void deferState(int type, int code, int value) {
+		switch (type) {
+		case EventCode.Ev.EV_KEY:
+		case EventCode.Ev.EV_LED:
+		case EventCode.Ev.EV_SW:
+		case EventCode.Ev.EV_ABS:
+			if (pendingState == pendingStates.length)
+				pendingStates = Arrays.copyOf(pendingStates, pendingStates.length * 2);
+			pendingStates[pendingState++] = ((long) type << 48) | ((long) (code & 0xffff) << 32)
+					| (value & 0xffffffffL);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void commitState() {
+		for (int i = 0; i < pendingState; i++) {
+			long update = pendingStates[i];
+			state.update((int) (update >>> 48), (int) (update >>> 32) & 0xffff, (int) update);
+		}
+		pendingState = 0;
+	}
+
+	/**
+	 * Query the current state of the keys, LEDs or switches from the kernel.
+	 *
+	 * @param cmd  ioctl, i.e. <code>EVIOCGKEY</code>, <code>EVIOCGLED</code> or
+	 *             <code>EVIOCGSW</code>
+	 * @param bits number of bits
+	 * @return bitset
+	 * @throws IOException on error
+	 */
+	long[] queryBits(int cmd, int bits) throws IOException {
+		Memory mem = new Memory(Bits.nativeBytes(bits));
+		mem.clear();
+		if (CLib.INSTANCE.ioctl(fd, cmd, mem) < 0) {
+			throw new IOException(String.format("ioctl failed with %d.", Native.getLastError()));
+		}
+		return Bits.fromNative(mem, bits);
+	}
+
+	private int resyncBits(RawEventSink sink, int type, int cmd, AtomicLongArray tracked, int bits, long sec,
+			long usec) throws IOException {
+		long[] now = queryBits(cmd, bits);
+		int deltas = 0;
+		for (int w = 0; w < tracked.length(); w++) {
+			long diff = now[w] ^ tracked.get(w);
+			tracked.lazySet(w, now[w]);
+			while (diff != 0) {
+				int bit = Long.numberOfTrailingZeros(diff);
+				if (sink != null)
+					sink.event(type, (w << 6) + bit, (int) ((now[w] >>> bit) & 1), sec, usec);
+				deltas++;
+				diff &= diff - 1;
+			}
+		}
+		return deltas;
+	}
+
+	/**
+	 * Read up to <code>max</code> events, blocking if there are none, and pass
+	 * every complete frame (all events up to a <code>SYN_REPORT</code>) to the
+	 * supplied {@link FrameSink}. Any events that follow the last
+	 * <code>SYN_REPORT</code> are kept and become the start of the next frame
+	 * delivered by a subsequent call.
+	 * <p>
+	 * The same {@link EventFrame} instance is used for every frame, so once the
+	 * frame has grown to fit the device's largest report, nothing is allocated by
+	 * this method.
+	 *
+	 * @param sink sink to receive frames
+	 * @param max  maximum number of events to read
+	 * @return number of frames delivered, which may be zero
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int readFrames(FrameSink sink, int max) throws IOException {
+		if (frameAssembler == null) {
+			frameAssembler = new FrameAssembler();
+		}
+		frameAssembler.sink = sink;
+		frameAssembler.frames = 0;
+		try {
+			readEvents(frameAssembler, max);
+			return frameAssembler.frames;
+		} finally {
+			frameAssembler.sink = null;
+		}
+	}
+
+	private int fill(int max) throws IOException {
+		if (!read) {
+			throw new IllegalStateException("This device is not a reading.");
+		}
+		if (max < 1) {
+			throw new IllegalArgumentException("Must read at least one event.");
+		}
+		ensureOpen();
+		int size = max * EVENT_SIZE;
+		if (eventBuffer == null || eventBuffer.size() < size) {
+			eventBuffer = new Memory(Math.max(max, DEFAULT_MAX_EVENTS) * EVENT_SIZE);
+		}
+		int read = CLib.Direct.read(fd, eventBuffer, size);
+		if (read == -1 && nonBlocking && Native.getLastError() == CLib.EAGAIN) {
+			return 0;
+		} else if (read < 1) {
 			throw new EOFException();
-		} else if (read.longValue() < size) {
+		} else if (read % EVENT_SIZE != 0) {
 			throw new RuntimeException(
-					"Error reading input event (read only " + read.longValue() + " of " + size + ").");
+					"Error reading input events (read " + read + " bytes, expected a multiple of " + EVENT_SIZE + ").");
 		}
-		ev.read();
-		ev.time.read();
+		return read / EVENT_SIZE;
+	}
+
+	static Event event(int type, int code, int value, long sec, long usec) {
 		try {
-			return new Event(ev);
-		}
-		catch(IllegalArgumentException iae) {
-			throw new IllegalArgumentException(String.format("Unknown event code %d for type %d (value %d)", ev.code, ev.type, ev.value));
+			return new Event(sec * 1000000 + usec, EventCode.fromCode(type, code), value);
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException(
+					String.format("Unknown event code %d for type %d (value %d)", code, type, value));
 		}
 	}
 
+	private static long nativeLong(Memory buf, long offset) {
+		return Native.LONG_SIZE == 8 ? buf.getLong(offset) : buf.getInt(offset);
+	}
+
 	/**
 	 * Close.
 	 *
@@ -1152,6 +2025,12 @@ public class InputDevice implements Closeable {
 	 */
 	@Override
 	public void close() throws IOException {
+		if (deferred) {
+			/* Probed, but never opened, and now never will be */
+			deferred = false;
+			closed = true;
+			return;
+		}
 		if (!open) {
 			throw new IllegalArgumentException("Not open.");
 		}
@@ -1170,6 +2049,7 @@ public class InputDevice implements Closeable {
 				LOG.log(Level.DEBUG, "Closed device " + file);
 		} finally {
 			open = false;
+			closed = true;
 		}
 	}
 
@@ -1188,26 +2068,6 @@ public class InputDevice implements Closeable {
 				+ ", product=" + product + ", bus=" + bus + ", version=" + version + "]";
 	}
 
-	private final static int BITS_PER_LONG() {
-		return NativeLong.SIZE * 8;
-	}
-
-	private final static int LONG(int x) {
-		return (x / BITS_PER_LONG());
-	}
-
-	private final static int OFF(int x) {
-		return x % BITS_PER_LONG();
-	}
-
-	private final static boolean test_bit(int bit, NativeLong[] array) {
-		return ((array[LONG(bit)].longValue() >> OFF(bit)) & 1) > 0;
-	}
-
-	private final static int NBITS(int x) {
-		return ((((x) - 1) / BITS_PER_LONG()) + 1);
-	}
-
 	/**
 	 * The main method.
 	 *
@@ -1324,4 +2184,18 @@ public class InputDevice implements Closeable {
 		}
 		return l;
 	}
+
+	private final static class FrameAssembler implements RawEventSink {
+		private final EventFrame frame = new EventFrame();
+		private FrameSink sink;
+		private int frames;
+
+		@Override
+		public void event(int type, int code, int value, long sec, long usec) {
+			if (frame.add(type, code, value, sec, usec)) {
+				frames++;
+				sink.frame(frame);
+			}
+		}
+	}
 }
@@ -0,0 +1,414 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.co.bithatch.linuxio.EventCode.Property;
+
+/**
+ * Keeps the metadata of probed input devices (name, IDs, driver version,
+ * capabilities and properties) on disk, so a process that starts often need
+ * not probe every device again each time.
+ * <p>
+ * Each entry is keyed by the device number and inode of the device node, and
+ * the modification time of its sysfs entry. If any of these have changed, the
+ * device has been replaced (for example, unplugged and plugged in again), so
+ * that entry is thrown away and the device is probed again. Otherwise the
+ * device is described from the cache without any ioctls, and is not opened
+ * until it is needed, just as with {@link InputDevice#probe(java.nio.file.Path)}.
+ * <p>
+ * Changes are only written when {@link #save()} is called, or by
+ * {@link #getAvailableDevices()}. A cache file that cannot be read is ignored.
+ */
+public class InputDeviceCache {
+
+	final static Logger LOG = System.getLogger(InputDeviceCache.class.getName());
+
+	private final static int MAGIC = 0x4c494f43;
+	private final static int FORMAT = 1;
+
+	private final Path file;
+	private final Path sysfs;
+	private final Map<String, Entry> entries = new HashMap<>();
+	private boolean dirty;
+
+	/**
+	 * Use a cache file, loading it if it exists.
+	 *
+	 * @param file cache file
+	 */
+	public InputDeviceCache(Path file) {
+		this(file, SysfsInput.getDefaultRoot());
+	}
+
+	/**
+	 * Use a cache file, loading it if it exists.
+	 *
+	 * @param file  cache file
+	 * @param sysfs sysfs input class directory, usually <i>/sys/class/input</i>
+	 */
+	public InputDeviceCache(Path file, Path sysfs) {
+		if (file == null)
+			throw new IllegalArgumentException("Cache file may not be null.");
+		this.file = file;
+		this.sysfs = sysfs;
+		load();
+	}
+
+	/**
+	 * Get the cache file.
+	 *
+	 * @return file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Get a device, either from the cache if it is unchanged, or by probing it if
+	 * not. Either way, the device is returned unopened, and is opened when it is
+	 * first needed. Links to device nodes, such as those in
+	 * <i>/dev/input/by-id</i>, share the entry of the node they point to.
+	 *
+	 * @param path device file
+	 * @return device
+	 * @throws IOException if the device must be probed but cannot be
+	 */
+	public InputDevice get(Path path) throws IOException {
+		Path real = path.toRealPath();
+		String key = real.toString();
+		long[] identity = identity(real);
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (identity != null && entry.matches(identity)) {
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, "Using cached metadata for " + path);
+					return entry.device(path);
+				}
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Cached metadata for " + path + " is stale");
+				entries.remove(key);
+				dirty = true;
+			}
+		}
+		InputDevice probed = new InputDevice(path);
+		try {
+			return put(path, probed);
+		} finally {
+			/* Handed out unopened, just the same as a device from the cache */
+			probed.close();
+		}
+	}
+
+	/**
+	 * Remember the metadata of a device that has just been probed, and describe
+	 * it again from that metadata, unopened.
+	 *
+	 * @param path   device file
+	 * @param probed device that has been probed
+	 * @return unopened device
+	 * @throws IOException if the device cannot be described
+	 */
+	InputDevice put(Path path, InputDevice probed) throws IOException {
+		Path real = path.toRealPath();
+		long[] identity = identity(real);
+		Entry entry;
+		try {
+			entry = new Entry(identity, probed);
+		} catch (IllegalStateException ise) {
+			throw new IOException(String.format("Failed to read the capabilities of %s.", path), ise);
+		}
+		if (identity != null) {
+			synchronized (entries) {
+				entries.put(real.toString(), entry);
+				dirty = true;
+			}
+		}
+		return entry.device(path);
+	}
+
+	/**
+	 * Get all available devices, as {@link InputDevice#getAvailableDevices()}
+	 * does, but using the cache. Entries for devices that no longer exist are
+	 * removed, and the cache is saved if anything changed.
+	 *
+	 * @return devices
+	 * @throws IOException on error
+	 */
+	public List<InputDevice> getAvailableDevices() throws IOException {
+		List<InputDevice> d = new ArrayList<>();
+		List<String> present = new ArrayList<>();
+		for (File f : InputDevice.getEventFiles(true)) {
+			d.add(get(f.toPath()));
+			present.add(key(f.toPath()));
+		}
+		synchronized (entries) {
+			if (entries.keySet().retainAll(present))
+				dirty = true;
+		}
+		save();
+		return d;
+	}
+
+	/**
+	 * Forget the metadata of a device, so it is probed again next time.
+	 *
+	 * @param path device file
+	 */
+	public void invalidate(Path path) {
+		synchronized (entries) {
+			if (entries.remove(key(path)) != null)
+				dirty = true;
+		}
+	}
+
+	/**
+	 * Forget the metadata of all devices.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			if (!entries.isEmpty()) {
+				entries.clear();
+				dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Write the cache if it has changed. It is written to a temporary file that
+	 * then replaces the cache file, so a reader never sees a partial cache.
+	 *
+	 * @throws IOException on error
+	 */
+	public void save() throws IOException {
+		synchronized (entries) {
+			if (!dirty)
+				return;
+			Path dir = file.toAbsolutePath().getParent();
+			if (dir != null)
+				Files.createDirectories(dir);
+			Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(FORMAT);
+					out.writeInt(entries.size());
+					for (Map.Entry<String, Entry> en : entries.entrySet()) {
+						out.writeUTF(en.getKey());
+						en.getValue().write(out);
+					}
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+			dirty = false;
+		}
+	}
+
+	private void load() {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+				LOG.log(Level.WARNING, "Ignoring input device cache " + file + " as it is not in a known format.");
+				return;
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				String key = in.readUTF();
+				entries.put(key, Entry.read(in));
+			}
+		} catch (NoSuchFileException nsfe) {
+			// Nothing cached yet
+		} catch (IOException | RuntimeException e) {
+			LOG.log(Level.WARNING, "Ignoring input device cache " + file + " as it cannot be read.", e);
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Get the key of the entry for a device file, i.e. the path of the device
+	 * node itself.
+	 */
+	private static String key(Path path) {
+		try {
+			return path.toRealPath().toString();
+		} catch (IOException ioe) {
+			/* Gone, but may still have an entry */
+			return path.toAbsolutePath().toString();
+		}
+	}
+
+	/**
+	 * Get what identifies the current device at a path, i.e. its device number,
+	 * inode and sysfs modification time. If this is not available, the device
+	 * cannot be cached. The path must be that of the device node itself, not a
+	 * link to it, so the node's sysfs entry can be found from its name.
+	 */
+	private long[] identity(Path path) {
+		long[] node = nodeIdentity(path);
+		if (node == null)
+			return null;
+		long mtime = -1;
+		if (sysfs != null) {
+			Path entry = sysfs.resolve(path.getFileName().toString());
+			try {
+				if (Files.exists(entry))
+					mtime = Files.getLastModifiedTime(entry).toMillis();
+			} catch (IOException ioe) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Cannot get modification time of " + entry, ioe);
+			}
+		}
+		return new long[] { node[0], node[1], mtime };
+	}
+
+	/**
+	 * Get the device number and inode of a device node. A node with the same
+	 * path but a different identity is a different device.
+	 *
+	 * @param path device file
+	 * @return device number and inode, or <code>null</code> if not available
+	 */
+	static long[] nodeIdentity(Path path) {
+		try {
+			Map<String, Object> attrs = Files.readAttributes(path, "unix:rdev,ino");
+			return new long[] { ((Number) attrs.get("rdev")).longValue(), ((Number) attrs.get("ino")).longValue() };
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Cannot identify " + path, e);
+			return null;
+		}
+	}
+
+	/**
+	 * The cached metadata of one device.
+	 */
+	private final static class Entry {
+		private final long[] identity;
+		private final String name;
+		private final String driverVersion;
+		private final int bus;
+		private final int vendor;
+		private final int product;
+		private final int version;
+		private final long[][] capabilities;
+		private final long[] properties;
+
+		private Entry(long[] identity, String name, String driverVersion, int bus, int vendor, int product,
+				int version, long[][] capabilities, long[] properties) {
+			this.identity = identity;
+			this.name = name;
+			this.driverVersion = driverVersion;
+			this.bus = bus;
+			this.vendor = vendor;
+			this.product = product;
+			this.version = version;
+			this.capabilities = capabilities;
+			this.properties = properties;
+		}
+
+		private Entry(long[] identity, InputDevice device) {
+			this(identity, device.getName(), device.getDriverVersion(), device.getBus(), device.getVendor(),
+					device.getProduct(), device.getVersion(), new long[EventCode.Ev.EV_CNT][],
+					new long[Bits.words(Property.INPUT_PROP_MAX.code() + 1)]);
+			for (int i = 0; i < capabilities.length; i++)
+				capabilities[i] = device.getCapabilityBits(i);
+			for (Property p : device.getProperties())
+				Bits.set(properties, p.code(), true);
+		}
+
+		private boolean matches(long[] identity) {
+			for (int i = 0; i < identity.length; i++) {
+				if (this.identity[i] != identity[i])
+					return false;
+			}
+			return true;
+		}
+
+		private InputDevice device(Path path) {
+			long[][] c = new long[capabilities.length][];
+			for (int i = 0; i < c.length; i++)
+				c[i] = capabilities[i].clone();
+			return new InputDevice(path, name, driverVersion, bus, vendor, product, version, c, properties.clone());
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			for (long l : identity)
+				out.writeLong(l);
+			out.writeUTF(name == null ? "" : name);
+			out.writeBoolean(driverVersion != null);
+			if (driverVersion != null)
+				out.writeUTF(driverVersion);
+			out.writeInt(bus);
+			out.writeInt(vendor);
+			out.writeInt(product);
+			out.writeInt(version);
+			for (long[] bits : capabilities)
+				writeBits(out, bits);
+			writeBits(out, properties);
+		}
+
+		private static Entry read(DataInputStream in) throws IOException {
+			long[] identity = new long[] { in.readLong(), in.readLong(), in.readLong() };
+			String name = in.readUTF();
+			String driverVersion = in.readBoolean() ? in.readUTF() : null;
+			int bus = in.readInt();
+			int vendor = in.readInt();
+			int product = in.readInt();
+			int version = in.readInt();
+			long[][] capabilities = new long[EventCode.Ev.EV_CNT][];
+			for (int i = 0; i < capabilities.length; i++)
+				capabilities[i] = readBits(in, Bits.words(EventCode.Type.count(i)));
+			long[] properties = readBits(in, Bits.words(Property.INPUT_PROP_MAX.code() + 1));
+			return new Entry(identity, name, driverVersion, bus, vendor, product, version, capabilities, properties);
+		}
+
+		private static void writeBits(DataOutputStream out, long[] bits) throws IOException {
+			out.writeShort(bits.length);
+			for (long l : bits)
+				out.writeLong(l);
+		}
+
+		private static long[] readBits(DataInputStream in, int words) throws IOException {
+			int length = in.readUnsignedShort();
+			if (length != words)
+				throw new IOException(String.format("Expected a bitset of %d words, but found %d.", words, length));
+			long[] bits = new long[length];
+			for (int i = 0; i < length; i++)
+				bits[i] = in.readLong();
+			return bits;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+import uk.co.bithatch.linuxio.InputController.Callback;
+import uk.co.bithatch.linuxio.InputController.FrameCallback;
+import uk.co.bithatch.linuxio.InputController.RawCallback;
+import uk.co.bithatch.linuxio.InputController.Subscription;
+
+/**
+ * Watches the input device directory (usually <i>/dev/input</i>) using
+ * inotify, so devices that are plugged in or removed are noticed straight
+ * away, without repeatedly scanning the directory.
+ * <p>
+ * When {@link #start()} is called, every device already present is reported
+ * as added. After that, each <code>event*</code> node that appears is reported
+ * as added, and each that disappears is reported as removed and closed. Devices
+ * are described using sysfs where possible (see {@link InputDevice#probe(Path)}),
+ * so they are not opened until they are subscribed to or otherwise used. A node
+ * that cannot be read yet (for example, because udev has not yet set its
+ * permissions) is tried again when its attributes change.
+ * <p>
+ * Devices may also be attached to an {@link InputController} automatically
+ * using one of the <code>attach()</code> or <code>attachFrames()</code> methods.
+ * Every device that matches is subscribed to when it appears, and the
+ * subscription is cancelled when it disappears.
+ * <p>
+ * Devices reported by the watcher belong to it, and are closed when they are
+ * removed or the watcher is closed. A device that is being polled by the
+ * {@link InputController} is removed from it first, and only closed once the
+ * polling thread has let go of it. Listeners are called on the watcher's own
+ * thread.
+ */
+public class InputDeviceWatcher implements Closeable {
+
+	final static Logger LOG = System.getLogger(InputDeviceWatcher.class.getName());
+
+	/**
+	 * Notified as devices are added and removed.
+	 */
+	public interface Listener {
+		/**
+		 * A device has been added. It is opened when it is first used.
+		 *
+		 * @param device device
+		 */
+		void added(InputDevice device);
+
+		/**
+		 * A device has been removed. It will be closed once all listeners have been
+		 * notified.
+		 *
+		 * @param device device
+		 */
+		void removed(InputDevice device);
+	}
+
+	/* Room for plenty of struct inotify_event, each at most 16 + NAME_MAX + 1 */
+	private final static int BUFFER_SIZE = 4096;
+	private final static int EVENT_HEADER_SIZE = 16;
+
+	private final static int WATCH_MASK = CLib.IN_CREATE | CLib.IN_DELETE | CLib.IN_ATTRIB | CLib.IN_MOVED_FROM
+			| CLib.IN_MOVED_TO | CLib.IN_DELETE_SELF | CLib.IN_MOVE_SELF | CLib.IN_ONLYDIR;
+
+	private final static Comparator<String> BY_EVENT_NUMBER = Comparator
+			.comparingInt(InputDevice::eventNumber);
+
+	private final Path directory;
+	private final InputController controller;
+	private final Map<String, InputDevice> devices = new LinkedHashMap<>();
+	private final Map<InputDevice, List<Subscription>> subscriptions = new HashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final List<Attachment> attachments = new CopyOnWriteArrayList<>();
+	private final Memory wakeBuffer = new Memory(8);
+	private Thread thread;
+	private int inotifyFd = -1;
+	private int wakeFd = -1;
+	private volatile boolean closed;
+
+	/**
+	 * Watch the default input device directory, attaching devices to the
+	 * default {@link InputController}.
+	 */
+	public InputDeviceWatcher() {
+		this(InputDevice.getInputDeviceDirectory().toPath(), InputController.getInstance());
+	}
+
+	/**
+	 * Watch an input device directory, attaching devices to the given
+	 * {@link InputController}.
+	 *
+	 * @param directory  directory containing the <code>event*</code> nodes
+	 * @param controller controller devices are attached to
+	 */
+	public InputDeviceWatcher(Path directory, InputController controller) {
+		if (directory == null)
+			throw new IllegalArgumentException("Directory may not be null.");
+		if (controller == null)
+			throw new IllegalArgumentException("Controller may not be null.");
+		this.directory = directory;
+		this.controller = controller;
+	}
+
+	/**
+	 * Get the directory being watched.
+	 *
+	 * @return directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Add a listener to be notified as devices are added and removed. Devices
+	 * that were added before the listener was, are not reported.
+	 *
+	 * @param listener listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener.
+	 *
+	 * @param listener listener
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the devices currently present.
+	 *
+	 * @return devices
+	 */
+	public List<InputDevice> getDevices() {
+		synchronized (devices) {
+			return new ArrayList<>(devices.values());
+		}
+	}
+
+	/**
+	 * Subscribe to every device that matches, both those present now and any
+	 * that are added later, until they are removed.
+	 *
+	 * @param matcher  matches devices to attach
+	 * @param filter   events wanted, or <code>null</code> for all
+	 * @param callback callback
+	 */
+	public void attach(Predicate<InputDevice> matcher, EventFilter filter, Callback callback) {
+		attach(new Attachment(matcher, d -> controller.subscribe(d, filter, callback)));
+	}
+
+	/**
+	 * Subscribe to every device that matches, both those present now and any
+	 * that are added later, until they are removed.
+	 *
+	 * @param matcher  matches devices to attach
+	 * @param filter   events wanted, or <code>null</code> for all
+	 * @param callback callback
+	 */
+	public void attach(Predicate<InputDevice> matcher, EventFilter filter, RawCallback callback) {
+		attach(new Attachment(matcher, d -> controller.subscribe(d, filter, callback)));
+	}
+
+	/**
+	 * Subscribe to every device that matches, both those present now and any
+	 * that are added later, until they are removed.
+	 *
+	 * @param matcher  matches devices to attach
+	 * @param filter   events wanted, or <code>null</code> for all
+	 * @param callback callback
+	 */
+	public void attachFrames(Predicate<InputDevice> matcher, EventFilter filter, FrameCallback callback) {
+		attach(new Attachment(matcher, d -> controller.subscribeFrames(d, filter, callback)));
+	}
+
+	/**
+	 * Start watching. Devices already present are reported as added before this
+	 * returns.
+	 *
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public void start() throws IOException {
+		synchronized (devices) {
+			if (closed)
+				throw new IllegalStateException("Closed.");
+			if (thread != null)
+				throw new IllegalStateException("Already started.");
+			inotifyFd = CLib.INSTANCE.inotify_init1(CLib.IN_CLOEXEC | CLib.IN_NONBLOCK);
+			if (inotifyFd == -1)
+				throw new IOException(String.format("Failed to initialise inotify, error %d.", Native.getLastError()));
+			/* Watch before scanning, so nothing added in between is missed */
+			if (CLib.INSTANCE.inotify_add_watch(inotifyFd, directory.toString(), WATCH_MASK) == -1) {
+				int err = Native.getLastError();
+				closeFds();
+				throw new IOException(String.format("Failed to watch '%s', error %d.", directory, err));
+			}
+			wakeFd = CLib.INSTANCE.eventfd(0, CLib.EFD_CLOEXEC | CLib.EFD_NONBLOCK);
+			if (wakeFd == -1) {
+				int err = Native.getLastError();
+				closeFds();
+				throw new IOException(String.format("Failed to create wake-up eventfd, error %d.", err));
+			}
+			scan();
+			thread = new Thread("InputWatcher") {
+				public void run() {
+					try {
+						watch();
+					} catch (IOException e) {
+						LOG.log(Level.ERROR, "Failed to watch for input devices.", e);
+					} finally {
+						stopped();
+					}
+				}
+			};
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop watching. All devices are detached, reported as removed and closed.
+	 */
+	@Override
+	public void close() {
+		Thread t;
+		synchronized (devices) {
+			if (closed)
+				return;
+			closed = true;
+			t = thread;
+			if (t == null)
+				return;
+			wakeBuffer.setLong(0, 1);
+			if (CLib.INSTANCE.write(wakeFd, wakeBuffer, new NativeLong(8)).longValue() == -1
+					&& LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, String.format("Failed to wake input watcher, error %d.", Native.getLastError()));
+		}
+		if (t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void attach(Attachment attachment) {
+		synchronized (devices) {
+			attachments.add(attachment);
+			for (InputDevice device : devices.values())
+				attach(attachment, device);
+		}
+	}
+
+	private void attach(Attachment attachment, InputDevice device) {
+		try {
+			if (attachment.matcher.test(device))
+				subscriptions.computeIfAbsent(device, k -> new ArrayList<>()).add(attachment.subscriber.apply(device));
+		} catch (RuntimeException re) {
+			LOG.log(Level.WARNING, "Failed to attach " + device.getFile() + ".", re);
+		}
+	}
+
+	private void watch() throws IOException {
+		Memory buf = new Memory(BUFFER_SIZE);
+		Memory wakeRead = new Memory(8);
+		try (Poller<Boolean> poller = Poller.create(controller.getBackend())) {
+			poller.add(wakeFd, Boolean.FALSE);
+			poller.add(inotifyFd, Boolean.TRUE);
+			while (!closed) {
+				int ready = poller.wait(-1);
+				for (int i = 0; i < ready; i++) {
+					if (poller.ready(i)) {
+						if (!read(buf))
+							return;
+					} else
+						CLib.Direct.read(wakeFd, wakeRead, 8);
+				}
+			}
+		}
+	}
+
+	private boolean read(Memory buf) throws IOException {
+		while (true) {
+			int read = CLib.Direct.read(inotifyFd, buf, BUFFER_SIZE);
+			if (read == -1) {
+				int err = Native.getLastError();
+				if (err == CLib.EAGAIN)
+					return true;
+				else if (err != CLib.EINTR)
+					throw new IOException(String.format("Failed to read inotify events, error %d.", err));
+			} else if (read == 0) {
+				return true;
+			} else {
+				synchronized (devices) {
+					for (int offset = 0; offset < read;) {
+						int mask = buf.getInt(offset + 4);
+						int len = buf.getInt(offset + 12);
+						String name = len == 0 ? null : buf.getString(offset + EVENT_HEADER_SIZE);
+						offset += EVENT_HEADER_SIZE + len;
+						if (!changed(mask, name))
+							return false;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean changed(int mask, String name) {
+		if ((mask & CLib.IN_Q_OVERFLOW) != 0) {
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Input watcher events overflowed, rescanning " + directory);
+			scan();
+		} else if ((mask & (CLib.IN_DELETE_SELF | CLib.IN_MOVE_SELF | CLib.IN_IGNORED)) != 0) {
+			LOG.log(Level.WARNING, "Input device directory " + directory + " has gone, no longer watching.");
+			return false;
+		} else if (name != null && name.startsWith("event")) {
+			if ((mask & (CLib.IN_DELETE | CLib.IN_MOVED_FROM)) != 0)
+				removed(name);
+			else if (!devices.containsKey(name))
+				added(name);
+		}
+		return true;
+	}
+
+	private void scan() {
+		String[] names = directory.toFile().list();
+		if (names == null) {
+			LOG.log(Level.WARNING, "Input device directory " + directory + " cannot be read.");
+			return;
+		}
+		List<String> present = new ArrayList<>();
+		for (String name : names) {
+			if (name.startsWith("event"))
+				present.add(name);
+		}
+		present.sort(BY_EVENT_NUMBER);
+		for (String name : new ArrayList<>(devices.keySet())) {
+			if (!present.contains(name))
+				removed(name);
+		}
+		for (String name : present) {
+			if (!devices.containsKey(name))
+				added(name);
+		}
+	}
+
+	private void added(String name) {
+		File file = directory.resolve(name).toFile();
+		if (!file.canRead()) {
+			/* Probably udev has not set permissions yet, there will be an IN_ATTRIB when it does */
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Input device " + file + " is not readable (yet)");
+			return;
+		}
+		InputDevice device;
+		try {
+			device = InputDevice.probe(file.toPath());
+		} catch (IOException ioe) {
+			if (LOG.isLoggable(Level.DEBUG))
+				LOG.log(Level.DEBUG, "Cannot probe " + file + " using sysfs, opening it instead", ioe);
+			try {
+				device = new InputDevice(file);
+			} catch (IOException ioe2) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Input device " + file + " cannot be opened (yet)", ioe2);
+				return;
+			}
+		}
+		if (LOG.isLoggable(Level.DEBUG))
+			LOG.log(Level.DEBUG, "Input device " + file + " added (" + device.getName() + ")");
+		devices.put(name, device);
+		for (Attachment attachment : attachments)
+			attach(attachment, device);
+		for (Listener listener : listeners) {
+			try {
+				listener.added(device);
+			} catch (RuntimeException re) {
+				LOG.log(Level.ERROR, "Listener failed.", re);
+			}
+		}
+	}
+
+	private void removed(String name) {
+		InputDevice device = devices.remove(name);
+		if (device == null)
+			return;
+		if (LOG.isLoggable(Level.DEBUG))
+			LOG.log(Level.DEBUG, "Input device " + device.getFile() + " removed (" + device.getName() + ")");
+		List<CompletableFuture<Void>> released = new ArrayList<>();
+		List<Subscription> l = subscriptions.remove(device);
+		if (l != null) {
+			for (Subscription subscription : l) {
+				subscription.cancel();
+				released.add(subscription.released());
+			}
+		}
+		for (Listener listener : listeners) {
+			try {
+				listener.removed(device);
+			} catch (RuntimeException re) {
+				LOG.log(Level.ERROR, "Listener failed.", re);
+			}
+		}
+		/* Anything else still polling it would be reading a closed (or re-used) descriptor */
+		released.add(controller.release(device));
+		/*
+		 * Only close once the polling thread has let go of the device, as it may be
+		 * reading it right now, and its descriptor could otherwise be re-used by the
+		 * next device opened
+		 */
+		CompletableFuture.allOf(released.toArray(new CompletableFuture<?>[0]))
+				.whenComplete((v, t) -> closeDevice(device));
+	}
+
+	private static void closeDevice(InputDevice device) {
+		if (!device.isClosed()) {
+			try {
+				device.close();
+			} catch (IOException ioe) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Failed to close " + device.getFile(), ioe);
+			}
+		}
+	}
+
+	private void stopped() {
+		synchronized (devices) {
+			closed = true;
+			thread = null;
+			for (String name : new ArrayList<>(devices.keySet()))
+				removed(name);
+			closeFds();
+		}
+	}
+
+	private void closeFds() {
+		if (inotifyFd != -1) {
+			CLib.INSTANCE.close(inotifyFd);
+			inotifyFd = -1;
+		}
+		if (wakeFd != -1) {
+			CLib.INSTANCE.close(wakeFd);
+			wakeFd = -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (devices) {
+			return "InputDeviceWatcher [directory=" + directory + ", devices=" + devices.keySet() + "]";
+		}
+	}
+
+	/**
+	 * Subscribes matching devices.
+	 */
+	private final static class Attachment {
+		private final Predicate<InputDevice> matcher;
+		private final Function<InputDevice, Subscription> subscriber;
+
+		private Attachment(Predicate<InputDevice> matcher, Function<InputDevice, Subscription> subscriber) {
+			if (matcher == null)
+				throw new IllegalArgumentException("Matcher may not be null.");
+			this.matcher = matcher;
+			this.subscriber = subscriber;
+		}
+	}
+}
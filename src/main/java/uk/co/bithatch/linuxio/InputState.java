@@ -0,0 +1,192 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The current state of the keys and buttons, LEDs, switches and absolute axes
+ * of an {@link InputDevice}, as obtained using {@link InputDevice#getState()}.
+ * <p>
+ * The state is updated a frame at a time, as each <code>SYN_REPORT</code> is
+ * read from the device (by whatever means, including via
+ * {@link InputController}), so it only reflects events that have actually been
+ * read. Any thread may query it at any time, queries are constant time and
+ * never lock. To start with an accurate picture
+ * of keys that were already held down and axes that are not at zero, use
+ * {@link InputDevice#seedState()}.
+ */
+public final class InputState {
+
+	/** Number of key codes. */
+	final static int KEY_CNT = EventCode.KEY_MAX.code() + 1;
+
+	final AtomicLongArray keys = new AtomicLongArray(Bits.words(KEY_CNT));
+	final AtomicLongArray leds = new AtomicLongArray(Bits.words(EventCode.LED_CNT.code()));
+	final AtomicLongArray switches = new AtomicLongArray(Bits.words(EventCode.SW_CNT.code()));
+	final AtomicIntegerArray abs = new AtomicIntegerArray(EventCode.ABS_CNT.code());
+
+	InputState() {
+	}
+
+	/**
+	 * Get whether a key or button is currently down.
+	 *
+	 * @param code key or button code
+	 * @return down
+	 */
+	public boolean isKeyDown(int code) {
+		return test(keys, code);
+	}
+
+	/**
+	 * Get whether a key or button is currently down.
+	 *
+	 * @param code key or button code
+	 * @return down
+	 */
+	public boolean isKeyDown(EventCode code) {
+		checkType(code, EventCode.Type.EV_KEY);
+		return isKeyDown(code.code());
+	}
+
+	/**
+	 * Get whether an LED is currently lit.
+	 *
+	 * @param code LED code
+	 * @return lit
+	 */
+	public boolean isLedOn(int code) {
+		return test(leds, code);
+	}
+
+	/**
+	 * Get whether an LED is currently lit.
+	 *
+	 * @param code LED code
+	 * @return lit
+	 */
+	public boolean isLedOn(EventCode code) {
+		checkType(code, EventCode.Type.EV_LED);
+		return isLedOn(code.code());
+	}
+
+	/**
+	 * Get whether a switch is currently on.
+	 *
+	 * @param code switch code
+	 * @return on
+	 */
+	public boolean isSwitchOn(int code) {
+		return test(switches, code);
+	}
+
+	/**
+	 * Get whether a switch is currently on.
+	 *
+	 * @param code switch code
+	 * @return on
+	 */
+	public boolean isSwitchOn(EventCode code) {
+		checkType(code, EventCode.Type.EV_SW);
+		return isSwitchOn(code.code());
+	}
+
+	/**
+	 * Get the current value of an absolute axis. Multi-touch axes reflect
+	 * whichever slot last reported a value.
+	 *
+	 * @param code absolute axis code
+	 * @return value
+	 */
+	public int getAbsValue(int code) {
+		return code < 0 || code >= abs.length() ? 0 : abs.get(code);
+	}
+
+	/**
+	 * Get the current value of an absolute axis. Multi-touch axes reflect
+	 * whichever slot last reported a value.
+	 *
+	 * @param code absolute axis code
+	 * @return value
+	 */
+	public int getAbsValue(EventCode code) {
+		checkType(code, EventCode.Type.EV_ABS);
+		return getAbsValue(code.code());
+	}
+
+	/**
+	 * Get the number of keys and buttons that are currently down.
+	 *
+	 * @return keys down
+	 */
+	public int getKeysDown() {
+		int down = 0;
+		for (int i = 0; i < keys.length(); i++)
+			down += Long.bitCount(keys.get(i));
+		return down;
+	}
+
+	/**
+	 * Update the state from an event. Must only be called by the thread reading
+	 * from the device.
+	 *
+	 * @param type  type
+	 * @param code  code
+	 * @param value value
+	 */
+	void update(int type, int code, int value) {
+		switch (type) {
+		case EventCode.Ev.EV_KEY:
+			set(keys, code, value != 0);
+			break;
+		case EventCode.Ev.EV_LED:
+			set(leds, code, value != 0);
+			break;
+		case EventCode.Ev.EV_SW:
+			set(switches, code, value != 0);
+			break;
+		case EventCode.Ev.EV_ABS:
+			if (code < abs.length())
+				abs.lazySet(code, value);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static boolean test(AtomicLongArray words, int bit) {
+		int w = bit >>> 6;
+		return bit >= 0 && w < words.length() && (words.get(w) & (1L << bit)) != 0;
+	}
+
+	private static void set(AtomicLongArray words, int bit, boolean on) {
+		int w = bit >>> 6;
+		if (w < words.length()) {
+			/* Single writer, so no need for compare and set */
+			long was = words.get(w);
+			words.lazySet(w, on ? was | (1L << bit) : was & ~(1L << bit));
+		}
+	}
+
+	private static void checkType(EventCode code, EventCode.Type type) {
+		if (code.type() != type)
+			throw new IllegalArgumentException(String.format("%s is not of type %s.", code, type));
+	}
+}
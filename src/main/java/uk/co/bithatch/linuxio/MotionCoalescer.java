@@ -0,0 +1,151 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import uk.co.bithatch.linuxio.InputDevice.RawEventSink;
+
+/**
+ * Sums relative motion from one device as described by a
+ * {@link MotionCoalescing}, passing everything else straight through. Only
+ * ever used by the thread reading the device, apart from
+ * {@link #requestFlush()}.
+ */
+final class MotionCoalescer implements RawEventSink {
+
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int MSC_TIMESTAMP = EventCode.MSC_TIMESTAMP.code();
+
+	private final RawEventSink target;
+	private final long windowNanos;
+	private final int frames;
+	private final int codes;
+	private final int[] sums = new int[EventCode.REL_CNT.code()];
+	private int pending;
+	private int pendingFrames;
+	private long since;
+	private long sec;
+	private long usec;
+	private int timestamp;
+	private boolean hasTimestamp;
+	private boolean inFrame;
+	private boolean passedThrough;
+	private volatile boolean flushRequested;
+
+	MotionCoalescer(RawEventSink target, MotionCoalescing coalescing) {
+		this.target = target;
+		windowNanos = coalescing.getWindowNanos();
+		frames = coalescing.getFrames();
+		codes = coalescing.codes();
+	}
+
+	/**
+	 * Ask for held motion to be delivered at the next frame boundary. The thread
+	 * reading the device must then be woken so it calls {@link #tick(long)}.
+	 */
+	void requestFlush() {
+		flushRequested = true;
+	}
+
+	@Override
+	public void event(int type, int code, int value, long sec, long usec) {
+		if (type == EventCode.Ev.EV_REL && code < sums.length && (codes & (1 << code)) != 0) {
+			if (pending == 0 && pendingFrames == 0)
+				since = System.nanoTime();
+			sums[code] += value;
+			pending |= 1 << code;
+			inFrame = true;
+		} else if (type == EventCode.Ev.EV_MSC && code == MSC_TIMESTAMP && (pending != 0 || pendingFrames > 0)) {
+			/* Only the latest matters for merged motion */
+			timestamp = value;
+			hasTimestamp = true;
+			inFrame = true;
+		} else if (type == EventCode.Ev.EV_SYN && code == SYN_REPORT) {
+			this.sec = sec;
+			this.usec = usec;
+			inFrame = false;
+			if (passedThrough) {
+				passedThrough = false;
+				pendingFrames = 0;
+				emit();
+				target.event(type, code, value, sec, usec);
+			} else if (pending == 0 && pendingFrames == 0) {
+				target.event(type, code, value, sec, usec);
+			} else {
+				pendingFrames++;
+				if (flushRequested || (frames > 0 && pendingFrames >= frames)
+						|| (windowNanos > 0 && System.nanoTime() - since >= windowNanos))
+					flush();
+			}
+		} else {
+			/* Anything else goes straight through, after the motion before it */
+			emit();
+			pendingFrames = 0;
+			passedThrough = true;
+			inFrame = true;
+			target.event(type, code, value, sec, usec);
+		}
+	}
+
+	/**
+	 * Deliver held motion if a flush point has been reached. Called by the
+	 * thread reading the device whenever it wakes up.
+	 *
+	 * @param now current {@link System#nanoTime()}
+	 * @return nanoseconds until held motion must be delivered, or -1 if there is
+	 *         no deadline
+	 */
+	long tick(long now) {
+		if (inFrame || pendingFrames == 0) {
+			/* The end of the current frame will check again */
+			if (!inFrame)
+				flushRequested = false;
+			return -1;
+		}
+		if (flushRequested || (windowNanos > 0 && now - since >= windowNanos)) {
+			flush();
+			return -1;
+		}
+		return windowNanos > 0 ? since + windowNanos - now : -1;
+	}
+
+	private void flush() {
+		flushRequested = false;
+		pendingFrames = 0;
+		if (emit())
+			target.event(EventCode.Ev.EV_SYN, SYN_REPORT, 0, sec, usec);
+	}
+
+	private boolean emit() {
+		boolean emitted = false;
+		for (int p = pending; p != 0; p &= p - 1) {
+			int code = Integer.numberOfTrailingZeros(p);
+			if (sums[code] != 0) {
+				target.event(EventCode.Ev.EV_REL, code, sums[code], sec, usec);
+				sums[code] = 0;
+				emitted = true;
+			}
+		}
+		pending = 0;
+		if (hasTimestamp) {
+			hasTimestamp = false;
+			if (emitted)
+				target.event(EventCode.Ev.EV_MSC, MSC_TIMESTAMP, timestamp, sec, usec);
+		}
+		return emitted;
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares how {@link InputController} should merge relative motion from high
+ * rate pointers, such as 8kHz mice. Consecutive <code>REL_X</code> and
+ * <code>REL_Y</code> events (and optionally the wheels) are summed, and
+ * delivered as a single frame when a flush point is reached. A flush point is
+ * reached when the motion has been held for the {@link #window(long, TimeUnit)},
+ * when the given number of {@link #frames(int)} have been merged, or when
+ * {@link InputController#flushMotion(InputDevice)} is called. If neither a
+ * window nor a frame count is set, motion is only delivered when explicitly
+ * flushed.
+ * <p>
+ * Keys, buttons and all other events are never held. Any motion held when one
+ * arrives is delivered first, so the order of motion and buttons is kept.
+ *
+ * <pre>
+ * InputController.getInstance()
+ * 		.setMotionCoalescing(new MotionCoalescing().window(16, TimeUnit.MILLISECONDS).wheel(true));
+ * </pre>
+ */
+public class MotionCoalescing {
+
+	private long windowNanos;
+	private int frames;
+	private boolean wheel;
+
+	/**
+	 * Deliver held motion once it has been held for this long. Zero (the
+	 * default) means there is no time limit.
+	 *
+	 * @param window window
+	 * @param unit   unit of window
+	 * @return this for chaining
+	 */
+	public MotionCoalescing window(long window, TimeUnit unit) {
+		if (window < 0)
+			throw new IllegalArgumentException("Window may not be negative.");
+		windowNanos = unit.toNanos(window);
+		return this;
+	}
+
+	/**
+	 * Deliver held motion once this many frames have been merged. Zero (the
+	 * default) means there is no frame limit.
+	 *
+	 * @param frames frames
+	 * @return this for chaining
+	 */
+	public MotionCoalescing frames(int frames) {
+		if (frames < 0)
+			throw new IllegalArgumentException("Frames may not be negative.");
+		this.frames = frames;
+		return this;
+	}
+
+	/**
+	 * Also sum wheel motion (<code>REL_WHEEL</code>, <code>REL_HWHEEL</code> and
+	 * their high resolution versions).
+	 *
+	 * @param wheel sum wheel motion
+	 * @return this for chaining
+	 */
+	public MotionCoalescing wheel(boolean wheel) {
+		this.wheel = wheel;
+		return this;
+	}
+
+	/**
+	 * Get how long motion may be held for, in nanoseconds, or zero for no limit.
+	 *
+	 * @return window in nanoseconds
+	 */
+	public long getWindowNanos() {
+		return windowNanos;
+	}
+
+	/**
+	 * Get how many frames may be merged, or zero for no limit.
+	 *
+	 * @return frames
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Get whether wheel motion is also summed.
+	 *
+	 * @return sum wheel motion
+	 */
+	public boolean isWheel() {
+		return wheel;
+	}
+
+	/**
+	 * Get the relative axes that are summed, as a bit mask of codes.
+	 *
+	 * @return codes
+	 */
+	int codes() {
+		int codes = 1 << EventCode.REL_X.code() | 1 << EventCode.REL_Y.code();
+		if (wheel)
+			codes |= 1 << EventCode.REL_WHEEL.code() | 1 << EventCode.REL_HWHEEL.code()
+					| 1 << EventCode.REL_WHEEL_HI_RES.code() | 1 << EventCode.REL_HWHEEL_HI_RES.code();
+		return codes;
+	}
+
+	/**
+	 * To string.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return "MotionCoalescing [windowNanos=" + windowNanos + ", frames=" + frames + ", wheel=" + wheel + "]";
+	}
+}
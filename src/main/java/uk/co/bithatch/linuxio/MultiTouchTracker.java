@@ -0,0 +1,336 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.Map;
+
+import uk.co.bithatch.linuxio.EventCode.AbsoluteValue;
+
+/**
+ * Decodes the multi-touch protocol B (slots) into contact down, move and up
+ * transitions. Feed it every event read from a device, either by passing it
+ * to {@link InputDevice#readEvents(InputDevice.RawEventSink, int)} or by
+ * registering it with {@link InputController} as a
+ * {@link InputController.RawCallback}. Transitions for all the slots that
+ * changed are delivered to the {@link Listener} when the
+ * <code>SYN_REPORT</code> that ends each frame arrives.
+ * <p>
+ * All per-slot state is held in arrays allocated up front, so decoding
+ * allocates nothing per event or per frame. The listener may query the
+ * current values of a slot using {@link #getValue(int, int)},
+ * {@link #getX(int)} and so on while it is being called.
+ */
+public final class MultiTouchTracker implements InputDevice.RawEventSink, InputController.RawCallback {
+
+	/**
+	 * Receives contact transitions.
+	 */
+	public interface Listener {
+
+		/**
+		 * A new contact has been made.
+		 *
+		 * @param tracker    the tracker
+		 * @param slot       the slot
+		 * @param trackingId the tracking ID of the contact
+		 */
+		void contactDown(MultiTouchTracker tracker, int slot, int trackingId);
+
+		/**
+		 * An existing contact has changed (moved, or changed pressure etc).
+		 *
+		 * @param tracker    the tracker
+		 * @param slot       the slot
+		 * @param trackingId the tracking ID of the contact
+		 */
+		void contactMove(MultiTouchTracker tracker, int slot, int trackingId);
+
+		/**
+		 * A contact has been lifted.
+		 *
+		 * @param tracker    the tracker
+		 * @param slot       the slot
+		 * @param trackingId the tracking ID the contact had
+		 */
+		void contactUp(MultiTouchTracker tracker, int slot, int trackingId);
+
+		/**
+		 * All the transitions for a frame have been delivered.
+		 *
+		 * @param tracker the tracker
+		 * @param sec     seconds part of the frame time
+		 * @param usec    microseconds part of the frame time
+		 */
+		default void frame(MultiTouchTracker tracker, long sec, long usec) {
+		}
+	}
+
+	final static Logger LOG = System.getLogger(MultiTouchTracker.class.getName());
+
+	private final static int FIRST_AXIS = EventCode.ABS_MT_TOUCH_MAJOR.code();
+	private final static int LAST_AXIS = EventCode.ABS_MT_TOOL_Y.code();
+	private final static int AXES = LAST_AXIS - FIRST_AXIS + 1;
+	private final static int TRACKING_ID = EventCode.ABS_MT_TRACKING_ID.code() - FIRST_AXIS;
+	private final static int SLOT = EventCode.ABS_MT_SLOT.code();
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+
+	private final InputDevice device;
+	private final Listener listener;
+	private final int slots;
+	private final int[] values;
+	private final int[] reportedIds;
+	private final boolean[] dirty;
+	private final int[] dirtySlots;
+	private final int[] slotBuffer;
+	private int dirtyCount;
+	private int slot;
+
+	/**
+	 * Constructor for a device. The number of slots is taken from the range of
+	 * <code>ABS_MT_SLOT</code>, and the initial state of every slot is queried
+	 * from the device, which must already be open for reading.
+	 *
+	 * @param device   device
+	 * @param listener listener
+	 * @throws IOException if the device does not support protocol B or the
+	 *                     state cannot be queried
+	 */
+	public MultiTouchTracker(InputDevice device, Listener listener) throws IOException {
+		this(device, slotCount(device), listener);
+		sync();
+	}
+
+	/**
+	 * Constructor for a stream of events without a device to query, for example
+	 * one being replayed. If events are dropped, the state is reset rather than
+	 * resynchronised.
+	 *
+	 * @param slots    number of slots
+	 * @param listener listener
+	 */
+	public MultiTouchTracker(int slots, Listener listener) {
+		this(null, slots, listener);
+	}
+
+	private MultiTouchTracker(InputDevice device, int slots, Listener listener) {
+		if (slots < 1)
+			throw new IllegalArgumentException("Must have at least one slot.");
+		this.device = device;
+		this.slots = slots;
+		this.listener = listener;
+		values = new int[slots * AXES];
+		reportedIds = new int[slots];
+		dirty = new boolean[slots];
+		dirtySlots = new int[slots];
+		slotBuffer = new int[slots + 1];
+		reset();
+	}
+
+	/**
+	 * Get the number of slots.
+	 *
+	 * @return slots
+	 */
+	public int getSlots() {
+		return slots;
+	}
+
+	/**
+	 * Get the number of contacts as of the last frame.
+	 *
+	 * @return contacts
+	 */
+	public int getContacts() {
+		int c = 0;
+		for (int i = 0; i < slots; i++)
+			if (reportedIds[i] != -1)
+				c++;
+		return c;
+	}
+
+	/**
+	 * Get the tracking ID of a slot, or -1 if the slot has no contact.
+	 *
+	 * @param slot slot
+	 * @return tracking ID
+	 */
+	public int getTrackingId(int slot) {
+		return getValue(slot, EventCode.ABS_MT_TRACKING_ID.code());
+	}
+
+	/**
+	 * Get the X position of a slot.
+	 *
+	 * @param slot slot
+	 * @return X position
+	 */
+	public int getX(int slot) {
+		return getValue(slot, EventCode.ABS_MT_POSITION_X.code());
+	}
+
+	/**
+	 * Get the Y position of a slot.
+	 *
+	 * @param slot slot
+	 * @return Y position
+	 */
+	public int getY(int slot) {
+		return getValue(slot, EventCode.ABS_MT_POSITION_Y.code());
+	}
+
+	/**
+	 * Get the pressure of a slot.
+	 *
+	 * @param slot slot
+	 * @return pressure
+	 */
+	public int getPressure(int slot) {
+		return getValue(slot, EventCode.ABS_MT_PRESSURE.code());
+	}
+
+	/**
+	 * Get the value of any multi-touch axis (<code>ABS_MT_TOUCH_MAJOR</code> to
+	 * <code>ABS_MT_TOOL_Y</code>) for a slot.
+	 *
+	 * @param slot slot
+	 * @param code axis code
+	 * @return value
+	 */
+	public int getValue(int slot, int code) {
+		if (slot < 0 || slot >= slots)
+			throw new IndexOutOfBoundsException("Slot " + slot + " out of range for " + slots + " slots.");
+		if (code < FIRST_AXIS || code > LAST_AXIS)
+			throw new IllegalArgumentException(String.format("0x%02x is not a multi-touch axis.", code));
+		return values[slot * AXES + code - FIRST_AXIS];
+	}
+
+	/**
+	 * Query the current state of every slot from the device. Any slots that
+	 * differ from what was last reported will produce transitions on the next
+	 * <code>SYN_REPORT</code>. This is done automatically when the kernel reports
+	 * it has dropped events.
+	 *
+	 * @throws IOException if the state cannot be queried
+	 */
+	public void sync() throws IOException {
+		if (device == null)
+			throw new IllegalStateException("There is no device to sync with.");
+		for (int a = 0; a < AXES; a++) {
+			int code = FIRST_AXIS + a;
+			if (!device.hasCapability(EventCode.Ev.EV_ABS, code))
+				continue;
+			slotBuffer[0] = code;
+			device.getMultiTouchSlots(slotBuffer);
+			for (int s = 0; s < slots; s++)
+				set(s, a, slotBuffer[s + 1]);
+		}
+		/* The cached absolute values are long out of date, so ask the kernel */
+		slot = device.queryAbsoluteValue(SLOT);
+	}
+
+	@Override
+	public void event(InputDevice device, int type, int code, int value, long sec, long usec) {
+		event(type, code, value, sec, usec);
+	}
+
+	@Override
+	public void event(int type, int code, int value, long sec, long usec) {
+		if (type == EventCode.Ev.EV_ABS) {
+			if (code == SLOT)
+				slot = value;
+			else if (code >= FIRST_AXIS && code <= LAST_AXIS && slot >= 0 && slot < slots)
+				set(slot, code - FIRST_AXIS, value);
+		} else if (type == EventCode.Ev.EV_SYN) {
+			if (code == SYN_REPORT)
+				report(sec, usec);
+			else if (code == SYN_DROPPED)
+				dropped();
+		}
+	}
+
+	private void set(int slot, int axis, int value) {
+		int idx = slot * AXES + axis;
+		if (values[idx] != value) {
+			values[idx] = value;
+			if (!dirty[slot]) {
+				dirty[slot] = true;
+				dirtySlots[dirtyCount++] = slot;
+			}
+		}
+	}
+
+	private void report(long sec, long usec) {
+		if (dirtyCount == 0)
+			return;
+		for (int i = 0; i < dirtyCount; i++) {
+			int s = dirtySlots[i];
+			dirty[s] = false;
+			int was = reportedIds[s];
+			int now = values[s * AXES + TRACKING_ID];
+			reportedIds[s] = now;
+			if (was == -1) {
+				if (now != -1)
+					listener.contactDown(this, s, now);
+			} else if (now == -1) {
+				listener.contactUp(this, s, was);
+			} else if (now != was) {
+				/* A new contact replaced the old one within a single frame */
+				listener.contactUp(this, s, was);
+				listener.contactDown(this, s, now);
+			} else {
+				listener.contactMove(this, s, now);
+			}
+		}
+		dirtyCount = 0;
+		listener.frame(this, sec, usec);
+	}
+
+	private void dropped() {
+		if (device == null) {
+			/* Nothing to sync with, so lift everything on the next frame */
+			for (int s = 0; s < slots; s++)
+				set(s, TRACKING_ID, -1);
+		} else {
+			try {
+				sync();
+			} catch (IOException ioe) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "Failed to resync multi-touch slots.", ioe);
+			}
+		}
+	}
+
+	private void reset() {
+		for (int s = 0; s < slots; s++) {
+			values[s * AXES + TRACKING_ID] = -1;
+			reportedIds[s] = -1;
+		}
+	}
+
+	private static int slotCount(InputDevice device) {
+		Map<AbsoluteValue, Integer> abs = device.getAbsoluteValues().get(EventCode.ABS_MT_SLOT);
+		if (abs == null)
+			throw new IllegalArgumentException(
+					String.format("%s does not support the multi-touch slot protocol.", device.getName()));
+		return abs.getOrDefault(AbsoluteValue.MAX, 0) + 1;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+
+import uk.co.bithatch.linuxio.InputController.Backend;
+
+/**
+ * Waits for any of a set of file descriptors to become readable. Each file
+ * descriptor has an attachment, and after {@link #wait(int)} returns the
+ * attachments of the ready descriptors are available from {@link #ready(int)}.
+ * Neither waiting nor getting the ready attachments allocates.
+ * <p>
+ * A poller is only used by the thread that waits on it, including adding and
+ * removing descriptors.
+ *
+ * @param <T> type of attachment
+ */
+abstract class Poller<T> implements Closeable {
+
+	final static Logger LOG = System.getLogger(Poller.class.getName());
+
+	/**
+	 * Create a poller using the requested backend. If epoll is requested but not
+	 * available, poll is used instead.
+	 *
+	 * @param <T>     type of attachment
+	 * @param backend backend
+	 * @return poller
+	 */
+	static <T> Poller<T> create(Backend backend) {
+		if (backend == Backend.EPOLL) {
+			try {
+				return new EPoll<>();
+			} catch (IOException | UnsatisfiedLinkError e) {
+				if (LOG.isLoggable(Level.DEBUG))
+					LOG.log(Level.DEBUG, "epoll is not available, falling back to poll.", e);
+			}
+		}
+		return new Poll<>();
+	}
+
+	/**
+	 * Start waiting for a file descriptor to become readable.
+	 *
+	 * @param fd         file descriptor
+	 * @param attachment attachment
+	 * @throws IOException on error
+	 */
+	abstract void add(int fd, T attachment) throws IOException;
+
+	/**
+	 * Stop waiting for the file descriptor with the given attachment. Nothing
+	 * happens if there is no such attachment.
+	 *
+	 * @param attachment attachment
+	 */
+	abstract void remove(T attachment);
+
+	/**
+	 * Get the number of file descriptors being waited on.
+	 *
+	 * @return size
+	 */
+	abstract int size();
+
+	/**
+	 * Wait for at least one file descriptor to become readable (or hang up).
+	 *
+	 * @param timeout timeout in milliseconds, or -1 to wait indefinitely
+	 * @return number of ready file descriptors, 0 if timed out or interrupted
+	 * @throws IOException on error
+	 */
+	abstract int wait(int timeout) throws IOException;
+
+	/**
+	 * Get the attachment of a ready file descriptor. Only valid until the next
+	 * call to {@link #wait(int)}.
+	 *
+	 * @param index index, less than the value returned by {@link #wait(int)}
+	 * @return attachment
+	 */
+	abstract T ready(int index);
+
+	@Override
+	public abstract void close();
+
+	/**
+	 * Uses epoll, so descriptors are registered with the kernel as they are
+	 * added and removed, and only the ready ones are returned.
+	 */
+	private final static class EPoll<T> extends Poller<T> {
+
+		/*
+		 * On all x86, the 64 bit data member of struct epoll_event follows the 32
+		 * bit events member directly. It is packed on x86_64, and 32 bit x86 only
+		 * aligns 64 bit members to 4 bytes anyway
+		 */
+		private final static int EVENT_SIZE = Platform.isIntel() ? 12 : 16;
+		private final static int DATA_OFFSET = EVENT_SIZE - 8;
+		private final static int MAX_READY = 64;
+
+		private final int epfd;
+		private final Memory ctl = new Memory(EVENT_SIZE);
+		private final Memory events = new Memory(EVENT_SIZE * MAX_READY);
+		private final Map<T, Integer> slots = new IdentityHashMap<>();
+		private final int[] ready = new int[MAX_READY];
+		private Object[] attachments = new Object[16];
+		private int[] fds = new int[16];
+		private int[] free = new int[16];
+		private int freeCount;
+		private int next;
+
+		private EPoll() throws IOException {
+			epfd = CLib.INSTANCE.epoll_create1(CLib.EPOLL_CLOEXEC);
+			if (epfd == -1)
+				throw new IOException(String.format("epoll_create1 failed with %d.", Native.getLastError()));
+		}
+
+		@Override
+		void add(int fd, T attachment) throws IOException {
+			if (slots.containsKey(attachment))
+				throw new IllegalStateException("Already added.");
+			int slot = freeCount > 0 ? free[--freeCount] : next++;
+			if (slot == attachments.length) {
+				int cap = slot * 2;
+				attachments = Arrays.copyOf(attachments, cap);
+				fds = Arrays.copyOf(fds, cap);
+				free = Arrays.copyOf(free, cap);
+			}
+			ctl.setInt(0, CLib.EPOLLIN | CLib.EPOLLPRI);
+			ctl.setLong(DATA_OFFSET, slot);
+			if (CLib.INSTANCE.epoll_ctl(epfd, CLib.EPOLL_CTL_ADD, fd, ctl) == -1) {
+				free[freeCount++] = slot;
+				throw new IOException(String.format("epoll_ctl failed with %d.", Native.getLastError()));
+			}
+			attachments[slot] = attachment;
+			fds[slot] = fd;
+			slots.put(attachment, slot);
+		}
+
+		@Override
+		void remove(T attachment) {
+			Integer slot = slots.remove(attachment);
+			if (slot != null) {
+				if (CLib.INSTANCE.epoll_ctl(epfd, CLib.EPOLL_CTL_DEL, fds[slot], ctl) == -1) {
+					/* If the fd was already closed, the kernel has removed it already */
+					if (LOG.isLoggable(Level.DEBUG))
+						LOG.log(Level.DEBUG, String.format("epoll_ctl delete of %d failed with %d.", fds[slot],
+								Native.getLastError()));
+				}
+				attachments[slot] = null;
+				free[freeCount++] = slot;
+			}
+		}
+
+		@Override
+		int size() {
+			return slots.size();
+		}
+
+		@Override
+		int wait(int timeout) throws IOException {
+			int n = CLib.Direct.epoll_wait(epfd, events, MAX_READY, timeout);
+			if (n < 0) {
+				int err = Native.getLastError();
+				if (err == CLib.EINTR)
+					return 0;
+				throw new IOException(String.format("epoll_wait failed with %d.", err));
+			}
+			for (int i = 0; i < n; i++)
+				ready[i] = (int) events.getLong(i * EVENT_SIZE + DATA_OFFSET);
+			return n;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		T ready(int index) {
+			return (T) attachments[ready[index]];
+		}
+
+		@Override
+		public void close() {
+			CLib.INSTANCE.close(epfd);
+		}
+	}
+
+	/**
+	 * Uses poll, so every descriptor is passed to the kernel on every wait and
+	 * all are scanned for readiness afterwards.
+	 */
+	private final static class Poll<T> extends Poller<T> {
+
+		/* Size of a native struct pollfd, and the offset of its revents field */
+		private final static int POLLFD_SIZE = 8;
+		private final static int POLLFD_REVENTS_OFFSET = 6;
+
+		private final List<T> attachments = new ArrayList<>();
+		private final List<Integer> fds = new ArrayList<>();
+		private Memory pollFds;
+		private int[] ready = new int[0];
+		private boolean changed = true;
+
+		@Override
+		void add(int fd, T attachment) throws IOException {
+			if (attachments.contains(attachment))
+				throw new IllegalStateException("Already added.");
+			attachments.add(attachment);
+			fds.add(fd);
+			changed = true;
+		}
+
+		@Override
+		void remove(T attachment) {
+			for (int i = 0; i < attachments.size(); i++) {
+				if (attachments.get(i) == attachment) {
+					attachments.remove(i);
+					fds.remove(i);
+					changed = true;
+					return;
+				}
+			}
+		}
+
+		@Override
+		int size() {
+			return attachments.size();
+		}
+
+		@Override
+		int wait(int timeout) throws IOException {
+			int size = attachments.size();
+			if (changed) {
+				changed = false;
+				if (pollFds == null || pollFds.size() < size * POLLFD_SIZE) {
+					pollFds = new Memory(Math.max(1, size) * POLLFD_SIZE);
+					ready = new int[Math.max(1, size)];
+				}
+				for (int i = 0; i < size; i++) {
+					pollFds.setInt(i * POLLFD_SIZE, fds.get(i));
+					pollFds.setShort(i * POLLFD_SIZE + 4, (short) (CLib.POLLIN | CLib.POLLPRI));
+				}
+			}
+			int n = CLib.Direct.poll(pollFds, size, timeout);
+			if (n < 0) {
+				int err = Native.getLastError();
+				if (err == CLib.EINTR)
+					return 0;
+				throw new IOException(String.format("poll failed with %d.", err));
+			}
+			int r = 0;
+			for (int i = 0; i < size && r < n; i++) {
+				if (pollFds.getShort(i * POLLFD_SIZE + POLLFD_REVENTS_OFFSET) != 0)
+					ready[r++] = i;
+			}
+			return r;
+		}
+
+		@Override
+		T ready(int index) {
+			return attachments.get(ready[index]);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+
+/**
+ * Reads what the kernel publishes about an input device in sysfs, i.e. under
+ * <i>/sys/class/input/eventN/device</i>. This is everything
+ * {@link InputDevice} otherwise gets using ioctls, apart from the driver
+ * version and absolute axis information, and needs neither an open file
+ * descriptor nor permission to read the device node.
+ */
+final class SysfsInput {
+
+	/**
+	 * System property that may be set to the sysfs input class directory, i.e.
+	 * the directory containing the <code>event*</code> entries.
+	 */
+	final static String INPUT_SYSFS = "linuxio.input.sysfs";
+
+	/* The capabilities file of each event type, if it has one */
+	private final static String[] CAPABILITIES = new String[Ev.EV_CNT];
+
+	static {
+		CAPABILITIES[Ev.EV_SYN] = "ev";
+		CAPABILITIES[Ev.EV_KEY] = "key";
+		CAPABILITIES[Ev.EV_REL] = "rel";
+		CAPABILITIES[Ev.EV_ABS] = "abs";
+		CAPABILITIES[Ev.EV_MSC] = "msc";
+		CAPABILITIES[Ev.EV_SW] = "sw";
+		CAPABILITIES[Ev.EV_LED] = "led";
+		CAPABILITIES[Ev.EV_SND] = "snd";
+		CAPABILITIES[Ev.EV_FF] = "ff";
+	}
+
+	private final Path device;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param root sysfs input class directory
+	 * @param node device node name, e.g. <code>event3</code>
+	 * @throws IOException if there is no such device in sysfs
+	 */
+	SysfsInput(Path root, String node) throws IOException {
+		device = root.resolve(node).resolve("device");
+		if (!Files.isDirectory(device))
+			throw new IOException(String.format("No sysfs entry for %s in %s.", node, root));
+	}
+
+	/**
+	 * Get the default sysfs input class directory, either
+	 * <i>/sys/class/input</i> or the value of the system property
+	 * {@link #INPUT_SYSFS}.
+	 *
+	 * @return directory
+	 */
+	static Path getDefaultRoot() {
+		return Paths.get(System.getProperty(INPUT_SYSFS, "/sys/class/input"));
+	}
+
+	/**
+	 * Get the directory of the device.
+	 *
+	 * @return directory
+	 */
+	Path getDevice() {
+		return device;
+	}
+
+	/**
+	 * Get the device name.
+	 *
+	 * @return name
+	 * @throws IOException on error
+	 */
+	String name() throws IOException {
+		return read("name");
+	}
+
+	/**
+	 * Get one of the device IDs, i.e. <code>bustype</code>, <code>vendor</code>,
+	 * <code>product</code> or <code>version</code>.
+	 *
+	 * @param id id name
+	 * @return value
+	 * @throws IOException on error
+	 */
+	int id(String id) throws IOException {
+		String text = read("id/" + id);
+		try {
+			return Integer.parseInt(text, 16);
+		} catch (NumberFormatException nfe) {
+			throw new IOException(String.format("Invalid %s '%s' in %s.", id, text, device), nfe);
+		}
+	}
+
+	/**
+	 * Get the capabilities of an event type as a bitset. Types with no
+	 * capabilities file are empty.
+	 *
+	 * @param type type code
+	 * @return bitset
+	 * @throws IOException on error
+	 */
+	long[] capabilities(int type) throws IOException {
+		int count = EventCode.Type.count(type);
+		String file = CAPABILITIES[type];
+		return file == null ? new long[Bits.words(count)] : bitmap("capabilities/" + file, count);
+	}
+
+	/**
+	 * Get the properties as a bitset.
+	 *
+	 * @return bitset
+	 * @throws IOException on error
+	 */
+	long[] properties() throws IOException {
+		return bitmap("properties", EventCode.Property.INPUT_PROP_MAX.code() + 1);
+	}
+
+	private long[] bitmap(String file, int bits) throws IOException {
+		String text;
+		try {
+			text = read(file);
+		} catch (NoSuchFileException nsfe) {
+			/* Older kernels do not have them all */
+			return new long[Bits.words(bits)];
+		}
+		try {
+			return Bits.fromSysfs(text, bits);
+		} catch (NumberFormatException nfe) {
+			throw new IOException(String.format("Invalid bitmap '%s' in %s/%s.", text, device, file), nfe);
+		}
+	}
+
+	private String read(String file) throws IOException {
+		String text = new String(Files.readAllBytes(device.resolve(file)), StandardCharsets.UTF_8);
+		return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+	}
+}
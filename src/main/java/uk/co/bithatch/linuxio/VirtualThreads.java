@@ -0,0 +1,51 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Access to virtual threads. This version is used on runtimes older than Java
+ * 21, where there are none. The multi-release jar contains another version of
+ * this class for Java 21 and above.
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Get whether virtual threads are available.
+	 *
+	 * @return available
+	 */
+	static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * Create an executor that runs each task on a new virtual thread.
+	 *
+	 * @param name prefix for thread names
+	 * @return executor
+	 * @throws UnsupportedOperationException if virtual threads are not available
+	 */
+	static Executor newExecutor(String name) {
+		throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+
+/**
+ * Checks conversions between bitsets and the kernel's bitmaps, in memory and
+ * as shown in sysfs.
+ */
+class BitsTest {
+
+	private final static int N = Bits.NATIVE_LONG_BITS;
+
+	@Test
+	void testSizes() {
+		assertEquals(1, Bits.words(1));
+		assertEquals(1, Bits.words(64));
+		assertEquals(2, Bits.words(65));
+		assertEquals(Native.LONG_SIZE, Bits.nativeBytes(1));
+		assertEquals(Native.LONG_SIZE * 2, Bits.nativeBytes(N + 1));
+	}
+
+	@Test
+	void testSetAndTest() {
+		long[] words = new long[2];
+		Bits.set(words, 64, true);
+		Bits.set(words, 3, true);
+		Bits.set(words, 3, false);
+		assertTrue(Bits.test(words, 64));
+		assertFalse(Bits.test(words, 3));
+		assertFalse(Bits.test(words, -1));
+		assertFalse(Bits.test(words, 128));
+	}
+
+	@Test
+	void testFromSysfs() {
+		assertArrayEquals(new long[] { 0 }, Bits.fromSysfs("0", 64));
+		assertArrayEquals(new long[] { 0x1f }, Bits.fromSysfs("1f", 64));
+		assertArrayEquals(new long[] { 0x5 }, Bits.fromSysfs("  5\n", 64));
+	}
+
+	@Test
+	void testFromSysfsWords() {
+		/* Each word is a native long, least significant last */
+		long[] words = Bits.fromSysfs("3 0 1", 3 * N);
+		assertTrue(Bits.test(words, 0));
+		assertTrue(Bits.test(words, 2 * N));
+		assertTrue(Bits.test(words, 2 * N + 1));
+		int set = 0;
+		for (long word : words)
+			set += Long.bitCount(word);
+		assertEquals(3, set);
+
+		/* The top bit of a word */
+		words = Bits.fromSysfs(Long.toHexString(1L << (N - 1)), N);
+		assertTrue(Bits.test(words, N - 1));
+	}
+
+	@Test
+	void testFromSysfsTruncates() {
+		assertArrayEquals(new long[] { 0xf }, Bits.fromSysfs("ff", 4));
+		assertArrayEquals(new long[] { 0 }, Bits.fromSysfs("1 0", 8));
+	}
+
+	@Test
+	void testFromSysfsInvalid() {
+		assertThrows(NumberFormatException.class, () -> Bits.fromSysfs("xyz", 64));
+	}
+
+	@Test
+	void testFromSysfsMatchesFormat() {
+		int[] bits = new int[] { 1, 30, 63, 64, 100, 700 };
+		long[] words = Bits.fromSysfs(FakeSysfs.bitmap(bits), 768);
+		for (int bit : bits)
+			assertTrue(Bits.test(words, bit), "Bit " + bit + " should be set");
+	}
+
+	@Test
+	void testNativeRoundTrip() {
+		int bits = InputState.KEY_CNT;
+		long[] words = new long[Bits.words(bits)];
+		for (int bit : new int[] { 0, 31, 32, 63, 64, 700, bits - 1 })
+			Bits.set(words, bit, true);
+		Memory mem = new Memory(Bits.nativeBytes(bits));
+		Bits.toNative(words, mem, bits);
+		assertArrayEquals(words, Bits.fromNative(mem, bits));
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.DeviceClassifier.Classification;
+import uk.co.bithatch.linuxio.DeviceClassifier.DeviceClass;
+import uk.co.bithatch.linuxio.EventCode.Ev;
+import uk.co.bithatch.linuxio.EventCode.Property;
+import uk.co.bithatch.linuxio.EventCode.Type;
+
+/**
+ * Checks the classification of devices with the capabilities typical of each
+ * kind.
+ */
+class DeviceClassifierTest {
+
+	@Test
+	void testKeyboard() {
+		Classification c = DeviceClassifier.classify(device(null, EventCode.KEY_ESC, EventCode.KEY_A,
+				EventCode.KEY_B, EventCode.KEY_C, EventCode.KEY_ENTER, EventCode.KEY_SPACE, EventCode.LED_CAPSL));
+		assertEquals(EnumSet.of(DeviceClass.KEYBOARD), c.getClasses());
+		assertEquals(DeviceClass.KEYBOARD, c.getPrimary());
+	}
+
+	@Test
+	void testPowerButton() {
+		Classification c = DeviceClassifier.classify(device(null, EventCode.KEY_POWER));
+		assertTrue(c.getClasses().isEmpty());
+		assertNull(c.getPrimary());
+	}
+
+	@Test
+	void testMouse() {
+		Classification c = DeviceClassifier.classify(device(null, EventCode.REL_X, EventCode.REL_Y,
+				EventCode.REL_WHEEL, EventCode.BTN_LEFT, EventCode.BTN_RIGHT));
+		assertEquals(EnumSet.of(DeviceClass.POINTER), c.getClasses());
+		assertTrue(c.isPointer(Type.EV_REL));
+		assertFalse(c.isPointer(Type.EV_ABS));
+	}
+
+	@Test
+	void testTouchpad() {
+		Classification c = DeviceClassifier.classify(device(new Property[] { Property.INPUT_PROP_POINTER },
+				EventCode.ABS_X, EventCode.ABS_Y, EventCode.ABS_MT_POSITION_X, EventCode.BTN_LEFT,
+				EventCode.BTN_TOUCH, EventCode.BTN_TOOL_FINGER));
+		assertEquals(DeviceClass.TOUCHPAD, c.getPrimary());
+		assertTrue(c.is(DeviceClass.POINTER));
+		assertTrue(c.isPointer(Type.EV_ABS));
+	}
+
+	@Test
+	void testTouchscreen() {
+		Classification c = DeviceClassifier.classify(device(new Property[] { Property.INPUT_PROP_DIRECT },
+				EventCode.ABS_X, EventCode.ABS_Y, EventCode.ABS_MT_POSITION_X, EventCode.BTN_TOUCH,
+				EventCode.BTN_TOOL_FINGER));
+		assertEquals(DeviceClass.TOUCHSCREEN, c.getPrimary());
+		assertFalse(c.is(DeviceClass.TOUCHPAD));
+
+		/* Without a finger tool it can only be a touchscreen */
+		c = DeviceClassifier.classify(device(null, EventCode.ABS_MT_POSITION_X, EventCode.BTN_TOUCH));
+		assertEquals(DeviceClass.TOUCHSCREEN, c.getPrimary());
+	}
+
+	@Test
+	void testTablet() {
+		Classification c = DeviceClassifier.classify(device(new Property[] { Property.INPUT_PROP_POINTER },
+				EventCode.ABS_X, EventCode.ABS_Y, EventCode.ABS_PRESSURE, EventCode.BTN_TOOL_PEN,
+				EventCode.BTN_TOUCH, EventCode.BTN_STYLUS));
+		assertEquals(DeviceClass.TABLET, c.getPrimary());
+		assertFalse(c.is(DeviceClass.TOUCHSCREEN));
+	}
+
+	@Test
+	void testJoystick() {
+		Classification c = DeviceClassifier.classify(
+				device(null, EventCode.ABS_X, EventCode.ABS_Y, EventCode.BTN_TRIGGER, EventCode.BTN_THUMB));
+		assertEquals(DeviceClass.JOYSTICK, c.getPrimary());
+
+		c = DeviceClassifier.classify(device(null, EventCode.ABS_X, EventCode.ABS_Y, EventCode.BTN_SOUTH));
+		assertEquals(DeviceClass.JOYSTICK, c.getPrimary());
+	}
+
+	@Test
+	void testSwitch() {
+		Classification c = DeviceClassifier.classify(device(null, EventCode.SW_LID));
+		assertEquals(EnumSet.of(DeviceClass.SWITCH), c.getClasses());
+		assertEquals(DeviceClass.SWITCH, c.getPrimary());
+	}
+
+	@Test
+	void testRemembered() throws IOException {
+		Path dir = Files.createTempDirectory("linuxio");
+		try {
+			Path node = Files.createFile(dir.resolve("event0"));
+			FakeSysfs sysfs = new FakeSysfs(dir.resolve("sysfs"));
+			sysfs.device("event0", "Lid Switch", 0x19, 0, 5, 0).capabilities("event0", "ev", Ev.EV_SYN, Ev.EV_SW)
+					.capabilities("event0", "sw", EventCode.SW_LID.code());
+			String was = System.getProperty(SysfsInput.INPUT_SYSFS);
+			System.setProperty(SysfsInput.INPUT_SYSFS, sysfs.getRoot().toString());
+			try {
+				DeviceClassifier classifier = new DeviceClassifier();
+				Classification c = classifier.get(node);
+				assertEquals(DeviceClass.SWITCH, c.getPrimary());
+
+				/* The same node is not classified again, even if it now looks different */
+				sysfs.capabilities("event0", "ev", Ev.EV_SYN, Ev.EV_KEY).capabilities("event0", "key",
+						EventCode.KEY_POWER.code());
+				assertSame(c, classifier.get(node));
+
+				classifier.invalidate(node);
+				assertNull(classifier.get(node).getPrimary());
+			} finally {
+				if (was == null)
+					System.clearProperty(SysfsInput.INPUT_SYSFS);
+				else
+					System.setProperty(SysfsInput.INPUT_SYSFS, was);
+			}
+		} finally {
+			try (Stream<Path> s = Files.walk(dir)) {
+				s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	private static InputDevice device(Property[] properties, EventCode... codes) {
+		long[][] caps = new long[Ev.EV_CNT][];
+		for (EventCode code : codes) {
+			int type = code.typeCode();
+			if (caps[type] == null)
+				caps[type] = new long[Bits.words(Type.count(type))];
+			Bits.set(caps[type], code.code(), true);
+		}
+		long[] props = new long[1];
+		if (properties != null) {
+			for (Property p : properties)
+				Bits.set(props, p.code(), true);
+		}
+		return new InputDevice(Paths.get("/dev/input/event99"), "Test", "1.0.1", 0, 0, 0, 0, caps, props);
+	}
+}
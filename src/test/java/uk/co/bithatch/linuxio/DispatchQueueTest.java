@@ -0,0 +1,191 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.InputController.OverflowPolicy;
+
+/**
+ * Checks what each {@link OverflowPolicy} delivers when the queue fills up.
+ * Delivery tasks are run by the test, so the queue fills up on demand.
+ */
+class DispatchQueueTest {
+
+	private final static int EV_SYN = EventCode.Ev.EV_SYN;
+	private final static int EV_KEY = EventCode.Ev.EV_KEY;
+	private final static int EV_REL = EventCode.Ev.EV_REL;
+	private final static int EV_ABS = EventCode.Ev.EV_ABS;
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+	private final static int REL_X = EventCode.REL_X.code();
+	private final static int REL_Y = EventCode.REL_Y.code();
+	private final static int BTN_LEFT = EventCode.BTN_LEFT.code();
+	private final static int ABS_MT_SLOT = EventCode.ABS_MT_SLOT.code();
+	private final static int ABS_MT_POSITION_X = EventCode.ABS_MT_POSITION_X.code();
+	private final static int ABS_MT_TRACKING_ID = EventCode.ABS_MT_TRACKING_ID.code();
+
+	private final List<Runnable> tasks = new ArrayList<>();
+	private final List<String> delivered = new ArrayList<>();
+
+	@Test
+	void testDeliversInOrder() {
+		DispatchQueue queue = queue(8, OverflowPolicy.DROP_OLDEST);
+		queue.event(EV_REL, REL_X, 1, 0, 0);
+		queue.event(EV_KEY, BTN_LEFT, 1, 0, 0);
+		queue.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		assertEquals(3, queue.depth());
+		runTasks(queue);
+		assertEquals(events(EV_REL, REL_X, 1, EV_KEY, BTN_LEFT, 1, EV_SYN, SYN_REPORT, 0), delivered);
+		assertEquals(0, queue.depth());
+		assertEquals(0, queue.overflows());
+	}
+
+	@Test
+	void testDropOldest() {
+		DispatchQueue queue = queue(4, OverflowPolicy.DROP_OLDEST);
+		for (int i = 0; i < 6; i++)
+			queue.event(EV_KEY, i + 1, 1, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_SYN, SYN_DROPPED, 0, EV_KEY, 3, 1, EV_KEY, 4, 1, EV_KEY, 5, 1, EV_KEY, 6, 1),
+				delivered);
+		assertEquals(2, queue.overflows());
+	}
+
+	@Test
+	void testDropNewest() {
+		DispatchQueue queue = queue(4, OverflowPolicy.DROP_NEWEST);
+		for (int i = 0; i < 6; i++)
+			queue.event(EV_KEY, i + 1, 1, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_KEY, 1, 1, EV_KEY, 2, 1, EV_KEY, 3, 1, EV_KEY, 4, 1), delivered);
+		delivered.clear();
+
+		/* The loss is reported before whatever comes next */
+		queue.event(EV_KEY, 7, 1, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_SYN, SYN_DROPPED, 0, EV_KEY, 7, 1), delivered);
+		assertEquals(2, queue.overflows());
+	}
+
+	@Test
+	void testCoalesceSumsMotion() {
+		DispatchQueue queue = full(16, OverflowPolicy.COALESCE);
+		queue.event(EV_REL, REL_X, 1, 0, 0);
+		queue.event(EV_REL, REL_Y, 5, 0, 0);
+		queue.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		queue.event(EV_REL, REL_X, 2, 0, 0);
+		queue.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		queue.event(EV_KEY, BTN_LEFT, 1, 0, 0);
+		queue.event(EV_REL, REL_X, 4, 0, 0);
+		queue.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		queue.event(EV_KEY, BTN_LEFT, 0, 0, 0);
+		queue.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_REL, REL_X, 3, EV_REL, REL_Y, 5, EV_SYN, SYN_REPORT, 0, EV_KEY, BTN_LEFT, 1, EV_REL,
+				REL_X, 4, EV_SYN, SYN_REPORT, 0, EV_KEY, BTN_LEFT, 0, EV_SYN, SYN_REPORT, 0),
+				delivered.subList(16, delivered.size()));
+		assertEquals(1, queue.overflows());
+		assertEquals(0, queue.depth());
+	}
+
+	@Test
+	void testCoalesceKeepsSlotsApart() {
+		DispatchQueue queue = full(16, OverflowPolicy.COALESCE);
+		queue.event(EV_ABS, ABS_MT_SLOT, 0, 0, 0);
+		queue.event(EV_ABS, ABS_MT_POSITION_X, 10, 0, 0);
+		queue.event(EV_ABS, ABS_MT_SLOT, 1, 0, 0);
+		queue.event(EV_ABS, ABS_MT_TRACKING_ID, -1, 0, 0);
+		queue.event(EV_ABS, ABS_MT_TRACKING_ID, 7, 0, 0);
+		queue.event(EV_ABS, ABS_MT_POSITION_X, 20, 0, 0);
+		queue.event(EV_ABS, ABS_MT_POSITION_X, 21, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_ABS, ABS_MT_SLOT, 0, EV_ABS, ABS_MT_POSITION_X, 10, EV_ABS, ABS_MT_SLOT, 1, EV_ABS,
+				ABS_MT_TRACKING_ID, -1, EV_ABS, ABS_MT_TRACKING_ID, 7, EV_ABS, ABS_MT_POSITION_X, 21),
+				delivered.subList(16, delivered.size()));
+	}
+
+	@Test
+	void testCoalesceLosesWhenFull() {
+		DispatchQueue queue = full(4, OverflowPolicy.COALESCE);
+		for (int i = 0; i < 6; i++)
+			queue.event(EV_KEY, 10 + i, 1, 0, 0);
+		assertEquals(3, queue.overflows());
+		runTasks(queue);
+		assertEquals(events(EV_KEY, 10, 1, EV_KEY, 11, 1, EV_KEY, 12, 1, EV_KEY, 13, 1, EV_SYN, SYN_DROPPED, 0),
+				delivered.subList(4, delivered.size()));
+		delivered.clear();
+
+		/* Back to the ring once the merged events are delivered */
+		queue.event(EV_KEY, 20, 1, 0, 0);
+		runTasks(queue);
+		assertEquals(events(EV_KEY, 20, 1), delivered);
+	}
+
+	@Test
+	void testClosedDiscards() {
+		DispatchQueue queue = queue(4, OverflowPolicy.DROP_OLDEST);
+		queue.event(EV_KEY, 1, 1, 0, 0);
+		queue.close();
+		queue.event(EV_KEY, 2, 1, 0, 0);
+		runTasks(queue);
+		assertEquals(events(), delivered);
+	}
+
+	@Test
+	void testCapacityRange() {
+		assertThrows(IllegalArgumentException.class, () -> queue(1, OverflowPolicy.BLOCK));
+	}
+
+	private DispatchQueue queue(int capacity, OverflowPolicy policy) {
+		return new DispatchQueue((type, code, value, sec, usec) -> delivered.add(event(type, code, value)),
+				tasks::add, capacity, policy);
+	}
+
+	/* A queue with as many keys waiting in it as it has room for */
+	private DispatchQueue full(int capacity, OverflowPolicy policy) {
+		DispatchQueue queue = queue(capacity, policy);
+		for (int i = 0; i < capacity; i++)
+			queue.event(EV_KEY, i + 1, 1, 0, 0);
+		return queue;
+	}
+
+	/* As the reading thread does after each batch */
+	private void runTasks(DispatchQueue queue) {
+		queue.flush();
+		while (!tasks.isEmpty())
+			tasks.remove(0).run();
+	}
+
+	private static String event(int type, int code, int value) {
+		return type + ":" + code + "=" + value;
+	}
+
+	private static List<String> events(int... events) {
+		List<String> l = new ArrayList<>();
+		for (int i = 0; i < events.length; i += 3)
+			l.add(event(events[i], events[i + 1], events[i + 2]));
+		return l;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.sun.jna.Native;
+
+/**
+ * A named pipe posing as an input device, so events written to it can be read
+ * back using {@link InputDevice} without any real hardware. The ioctls that
+ * describe a device fail on a pipe, so it has no name or capabilities.
+ */
+final class EventFifo implements Closeable {
+
+	/**
+	 * Opens the device reading the pipe.
+	 */
+	interface Opener {
+		/**
+		 * Open the device.
+		 *
+		 * @param file pipe
+		 * @return device
+		 * @throws IOException on error
+		 */
+		InputDevice open(Path file) throws IOException;
+	}
+
+	/** Size of a struct input_event. */
+	final static int EVENT_SIZE = Native.LONG_SIZE * 2 + 8;
+
+	private final Path file;
+	private final InputDevice device;
+	private final OutputStream out;
+
+	/**
+	 * Create a pipe in a directory, and open it as a device.
+	 *
+	 * @param dir  directory
+	 * @param name file name, e.g. <code>event0</code>
+	 * @throws IOException on error
+	 */
+	EventFifo(Path dir, String name) throws IOException {
+		this(dir, name, InputDevice::new);
+	}
+
+	/**
+	 * Create a pipe in a directory, and open it as a device.
+	 *
+	 * @param dir    directory
+	 * @param name   file name, e.g. <code>event0</code>
+	 * @param opener opens the device
+	 * @throws IOException on error
+	 */
+	EventFifo(Path dir, String name, Opener opener) throws IOException {
+		file = dir.resolve(name);
+		mkfifo(file);
+		device = opener.open(file);
+		/* The device opens it for reading and writing, so this never blocks */
+		out = new FileOutputStream(file.toFile());
+	}
+
+	/**
+	 * Create a named pipe.
+	 *
+	 * @param file file
+	 * @throws IOException if it cannot be created
+	 */
+	static void mkfifo(Path file) throws IOException {
+		try {
+			if (new ProcessBuilder("mkfifo", file.toString()).inheritIO().start().waitFor() != 0
+					|| !Files.exists(file))
+				throw new IOException("Failed to create " + file + ".");
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted.", ie);
+		}
+	}
+
+	/**
+	 * Encode events, as the kernel would deliver them.
+	 *
+	 * @param events type, code and value of each event
+	 * @return encoded events
+	 */
+	static byte[] encode(int[]... events) {
+		ByteBuffer buf = ByteBuffer.allocate(events.length * EVENT_SIZE).order(ByteOrder.nativeOrder());
+		for (int[] event : events) {
+			if (Native.LONG_SIZE == 8) {
+				buf.putLong(1);
+				buf.putLong(2);
+			} else {
+				buf.putInt(1);
+				buf.putInt(2);
+			}
+			buf.putShort((short) event[0]);
+			buf.putShort((short) event[1]);
+			buf.putInt(event[2]);
+		}
+		return buf.array();
+	}
+
+	/**
+	 * Get the device reading the pipe.
+	 *
+	 * @return device
+	 */
+	InputDevice getDevice() {
+		return device;
+	}
+
+	/**
+	 * Get the pipe.
+	 *
+	 * @return file
+	 */
+	Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Write events.
+	 *
+	 * @param events type, code and value of each event
+	 * @throws IOException on error
+	 */
+	void write(int[]... events) throws IOException {
+		write(encode(events));
+	}
+
+	/**
+	 * Write events that have already been encoded.
+	 *
+	 * @param events encoded events
+	 * @throws IOException on error
+	 */
+	void write(byte[] events) throws IOException {
+		out.write(events);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			out.close();
+		} finally {
+			if (device.isOpen())
+				device.close();
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Memory;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+import uk.co.bithatch.linuxio.EventCode.Type;
+
+/**
+ * Checks what a filter accepts, and the masks it gives the kernel.
+ */
+class EventFilterTest {
+
+	private final static int KEY_A = EventCode.KEY_A.code();
+	private final static int KEY_B = EventCode.KEY_B.code();
+	private final static int REL_X = EventCode.REL_X.code();
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+
+	@Test
+	void testSynchronisationAlwaysAccepted() {
+		EventFilter filter = new EventFilter();
+		assertTrue(filter.accepts(Ev.EV_SYN, SYN_REPORT));
+		assertFalse(filter.accepts(Ev.EV_KEY, KEY_A));
+		assertFalse(filter.accepts(Ev.EV_CNT, 0));
+		assertFalse(filter.accepts(-1, 0));
+	}
+
+	@Test
+	void testCodes() {
+		EventFilter filter = new EventFilter().codes(EventCode.KEY_A);
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_A));
+		assertFalse(filter.accepts(Ev.EV_KEY, KEY_B));
+		assertFalse(filter.accepts(Ev.EV_REL, REL_X));
+	}
+
+	@Test
+	void testTypes() {
+		EventFilter filter = new EventFilter().types(Type.EV_REL);
+		assertTrue(filter.accepts(Ev.EV_REL, REL_X));
+		assertTrue(filter.accepts(Ev.EV_REL, EventCode.REL_WHEEL.code()));
+		assertFalse(filter.accepts(Ev.EV_KEY, KEY_A));
+	}
+
+	@Test
+	void testTypeWidensCodes() {
+		EventFilter filter = new EventFilter().codes(EventCode.KEY_A).types(Type.EV_KEY);
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_B));
+
+		/* And a code does not narrow a type again */
+		filter = new EventFilter().types(Type.EV_KEY).codes(EventCode.KEY_A);
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_B));
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().types(Type.EV_SYN));
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().code(Ev.EV_SYN, SYN_REPORT));
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().code(Ev.EV_CNT, 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new EventFilter().code(Ev.EV_KEY, Type.count(Ev.EV_KEY)));
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().code(Ev.EV_KEY, -1));
+	}
+
+	@Test
+	void testMerge() {
+		EventFilter filter = new EventFilter().codes(EventCode.KEY_A)
+				.merge(new EventFilter().codes(EventCode.KEY_B).types(Type.EV_REL));
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_A));
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_B));
+		assertFalse(filter.accepts(Ev.EV_KEY, EventCode.KEY_C.code()));
+		assertTrue(filter.accepts(Ev.EV_REL, EventCode.REL_WHEEL.code()));
+
+		/* A whole type stays whole */
+		filter = new EventFilter().types(Type.EV_KEY).merge(new EventFilter().codes(EventCode.KEY_A));
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_B));
+		filter = new EventFilter().codes(EventCode.KEY_A).merge(new EventFilter().types(Type.EV_KEY));
+		assertTrue(filter.accepts(Ev.EV_KEY, KEY_B));
+	}
+
+	@Test
+	void testValidate() {
+		long[][] caps = new long[Ev.EV_CNT][];
+		caps[Ev.EV_KEY] = new long[Bits.words(Type.count(Ev.EV_KEY))];
+		Bits.set(caps[Ev.EV_KEY], KEY_A, true);
+		InputDevice device = new InputDevice(Paths.get("/dev/input/event99"), "Keys", "1.0.1", 0, 0, 0, 0, caps,
+				new long[1]);
+
+		new EventFilter().codes(EventCode.KEY_A).validate(device);
+		new EventFilter().types(Type.EV_KEY).validate(device);
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().codes(EventCode.KEY_B).validate(device));
+		assertThrows(IllegalArgumentException.class, () -> new EventFilter().types(Type.EV_REL).validate(device));
+	}
+
+	@Test
+	void testKernelMasks() {
+		EventFilter filter = new EventFilter().codes(EventCode.KEY_A).types(Type.EV_REL);
+		int keys = Type.count(Ev.EV_KEY);
+		int rels = Type.count(Ev.EV_REL);
+		Memory mem = new Memory(Bits.nativeBytes(keys));
+
+		filter.toNative(Ev.EV_SYN, mem, Ev.EV_CNT);
+		long[] types = new long[Bits.words(Ev.EV_CNT)];
+		Bits.set(types, Ev.EV_SYN, true);
+		Bits.set(types, Ev.EV_KEY, true);
+		Bits.set(types, Ev.EV_REL, true);
+		assertArrayEquals(types, Bits.fromNative(mem, Ev.EV_CNT));
+
+		filter.toNative(Ev.EV_KEY, mem, keys);
+		long[] codes = new long[Bits.words(keys)];
+		Bits.set(codes, KEY_A, true);
+		assertArrayEquals(codes, Bits.fromNative(mem, keys));
+
+		filter.toNative(Ev.EV_REL, mem, rels);
+		assertArrayEquals(EventFilter.all(rels), Bits.fromNative(mem, rels));
+
+		filter.toNative(Ev.EV_ABS, mem, Type.count(Ev.EV_ABS));
+		assertArrayEquals(new long[Bits.words(Type.count(Ev.EV_ABS))],
+				Bits.fromNative(mem, Type.count(Ev.EV_ABS)));
+	}
+}
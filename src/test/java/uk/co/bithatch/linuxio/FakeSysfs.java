@@ -0,0 +1,135 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A directory laid out like <i>/sys/class/input</i>, for describing devices
+ * without any real hardware.
+ */
+final class FakeSysfs {
+
+	private final Path root;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param root directory to create the entries in
+	 */
+	FakeSysfs(Path root) {
+		this.root = root;
+	}
+
+	/**
+	 * Get the directory, i.e. what would be <i>/sys/class/input</i>.
+	 *
+	 * @return directory
+	 */
+	Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Add a device with a name and IDs, but no capabilities.
+	 *
+	 * @param node    device node name, e.g. <code>event0</code>
+	 * @param name    device name
+	 * @param bus     bus type
+	 * @param vendor  vendor ID
+	 * @param product product ID
+	 * @param version version
+	 * @return this for chaining
+	 * @throws IOException on error
+	 */
+	FakeSysfs device(String node, String name, int bus, int vendor, int product, int version) throws IOException {
+		write(node, "name", name);
+		write(node, "id/bustype", String.format("%04x", bus));
+		write(node, "id/vendor", String.format("%04x", vendor));
+		write(node, "id/product", String.format("%04x", product));
+		write(node, "id/version", String.format("%04x", version));
+		return this;
+	}
+
+	/**
+	 * Set the capabilities of an event type, e.g. <code>key</code>.
+	 *
+	 * @param node device node name
+	 * @param type capabilities file name
+	 * @param bits capabilities
+	 * @return this for chaining
+	 * @throws IOException on error
+	 */
+	FakeSysfs capabilities(String node, String type, int... bits) throws IOException {
+		return write(node, "capabilities/" + type, bitmap(bits));
+	}
+
+	/**
+	 * Set the properties.
+	 *
+	 * @param node device node name
+	 * @param bits properties
+	 * @return this for chaining
+	 * @throws IOException on error
+	 */
+	FakeSysfs properties(String node, int... bits) throws IOException {
+		return write(node, "properties", bitmap(bits));
+	}
+
+	/**
+	 * Write a file of a device, followed by a newline as sysfs does.
+	 *
+	 * @param node device node name
+	 * @param file file relative to the device directory
+	 * @param text content
+	 * @return this for chaining
+	 * @throws IOException on error
+	 */
+	FakeSysfs write(String node, String file, String text) throws IOException {
+		Path path = root.resolve(node).resolve("device").resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.write(path, (text + "\n").getBytes(StandardCharsets.UTF_8));
+		return this;
+	}
+
+	/**
+	 * Format bits as the kernel shows a bitmap in sysfs, i.e. native longs in
+	 * hex, most significant first, without leading zero longs.
+	 *
+	 * @param bits bits that are set
+	 * @return text
+	 */
+	static String bitmap(int... bits) {
+		int max = 0;
+		for (int bit : bits)
+			max = Math.max(max, bit);
+		long[] words = new long[max / Bits.NATIVE_LONG_BITS + 1];
+		for (int bit : bits)
+			words[bit / Bits.NATIVE_LONG_BITS] |= 1L << (bit % Bits.NATIVE_LONG_BITS);
+		StringBuilder b = new StringBuilder();
+		for (int i = words.length - 1; i >= 0; i--) {
+			if (b.length() > 0)
+				b.append(' ');
+			b.append(Long.toHexString(words[i]));
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+import uk.co.bithatch.linuxio.EventCode.Type;
+import uk.co.bithatch.linuxio.InputController.Subscription;
+
+/**
+ * Checks that several filtered subscriptions to one device each get just the
+ * events they asked for, as the set of subscriptions changes. Events are
+ * written to a pipe standing in for the device, which claims to have every
+ * capability.
+ */
+class InputControllerFilterTest {
+
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int KEY_A = EventCode.KEY_A.code();
+	private final static int KEY_B = EventCode.KEY_B.code();
+	private final static int REL_X = EventCode.REL_X.code();
+
+	private Path dir;
+	private EventFifo fifo;
+	private InputDevice device;
+	/* The last mask set, with the filter wrapped so a null filter is seen */
+	private final List<Optional<EventFilter>> masks = new ArrayList<>();
+	private final InputController controller = InputController.getInstance();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("linuxio");
+		fifo = new EventFifo(dir, "event0", file -> new InputDevice(file) {
+			@Override
+			protected void readCaps() {
+				/* A pipe has no capabilities to read */
+			}
+
+			@Override
+			public boolean hasCapability(int type) {
+				return true;
+			}
+
+			@Override
+			public boolean hasCapability(int type, int code) {
+				return true;
+			}
+
+			@Override
+			public void setEventMask(EventFilter filter) throws IOException {
+				synchronized (masks) {
+					masks.add(Optional.ofNullable(filter));
+				}
+				super.setEventMask(filter);
+			}
+		});
+		device = fifo.getDevice();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (device != null)
+			controller.release(device).get(10, TimeUnit.SECONDS);
+		if (fifo != null)
+			fifo.close();
+		if (dir != null)
+			Files.deleteIfExists(dir);
+	}
+
+	@Test
+	void testEachGetsWhatItAskedFor() throws Exception {
+		Collector keys = new Collector();
+		Collector rel = new Collector();
+		Collector all = new Collector();
+		Collector presses = new Collector();
+		controller.subscribe(device, new EventFilter().codes(EventCode.KEY_A), keys);
+		Subscription relSubscription = controller.subscribe(device, new EventFilter().types(Type.EV_REL), rel);
+		Subscription allSubscription = controller.subscribe(device, null, all);
+		controller.subscribe(device, new EventFilter().types(Type.EV_KEY).values(Type.EV_KEY, 1, 1), presses);
+
+		fifo.write(new int[] { Ev.EV_KEY, KEY_A, 1 }, new int[] { Ev.EV_KEY, KEY_B, 1 },
+				new int[] { Ev.EV_REL, REL_X, 5 }, new int[] { Ev.EV_SYN, SYN_REPORT, 0 },
+				new int[] { Ev.EV_KEY, KEY_A, 0 }, new int[] { Ev.EV_SYN, SYN_REPORT, 0 });
+
+		assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_SYN, SYN_REPORT, 0, Ev.EV_KEY, KEY_A, 0, Ev.EV_SYN, SYN_REPORT,
+				0), keys.frames(2));
+		assertEquals(events(Ev.EV_REL, REL_X, 5, Ev.EV_SYN, SYN_REPORT, 0, Ev.EV_SYN, SYN_REPORT, 0), rel.frames(2));
+		assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_KEY, KEY_B, 1, Ev.EV_REL, REL_X, 5, Ev.EV_SYN, SYN_REPORT, 0,
+				Ev.EV_KEY, KEY_A, 0, Ev.EV_SYN, SYN_REPORT, 0), all.frames(2));
+		assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_KEY, KEY_B, 1, Ev.EV_SYN, SYN_REPORT, 0, Ev.EV_SYN,
+				SYN_REPORT, 0), presses.frames(2));
+
+		/* The others keep their events once one has gone */
+		relSubscription.cancel();
+		allSubscription.cancel();
+		assertFalse(relSubscription.isActive());
+		fifo.write(new int[] { Ev.EV_REL, REL_X, 1 }, new int[] { Ev.EV_KEY, KEY_A, 1 },
+				new int[] { Ev.EV_SYN, SYN_REPORT, 0 });
+		assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_SYN, SYN_REPORT, 0), keys.frames(1));
+		assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_SYN, SYN_REPORT, 0), presses.frames(1));
+		assertTrue(rel.events.isEmpty());
+		assertTrue(all.events.isEmpty());
+	}
+
+	@Test
+	void testFailingSubscriberDoesNotStopOthers() throws Exception {
+		Collector keys = new Collector();
+		controller.subscribe(device, null, (d, type, code, value, sec, usec) -> {
+			throw new IllegalStateException("Failing on purpose.");
+		});
+		controller.subscribe(device, new EventFilter().types(Type.EV_KEY), keys);
+
+		for (int i = 0; i < 2; i++) {
+			fifo.write(new int[] { Ev.EV_KEY, KEY_A, 1 }, new int[] { Ev.EV_SYN, SYN_REPORT, 0 });
+			assertEquals(events(Ev.EV_KEY, KEY_A, 1, Ev.EV_SYN, SYN_REPORT, 0), keys.frames(1));
+		}
+	}
+
+	@Test
+	void testPublisherSeesMaskedEvents() throws Exception {
+		controller.subscribe(device, new EventFilter().codes(EventCode.KEY_A), new Collector());
+		assertTrue(lastMask().isPresent(), "Filtered subscription should mask the device");
+
+		controller.publisher();
+		assertFalse(lastMask().isPresent(), "Publisher of every event should unmask the device");
+
+		controller.subscribe(device, new EventFilter().codes(EventCode.KEY_B), new Collector());
+		assertFalse(lastMask().isPresent());
+	}
+
+	private Optional<EventFilter> lastMask() {
+		synchronized (masks) {
+			return masks.get(masks.size() - 1);
+		}
+	}
+
+	private static List<String> events(int... events) {
+		List<String> l = new ArrayList<>();
+		for (int i = 0; i < events.length; i += 3)
+			l.add(Collector.event(events[i], events[i + 1], events[i + 2]));
+		return l;
+	}
+
+	/**
+	 * Collects the events of one subscription.
+	 */
+	private final static class Collector implements InputController.RawCallback {
+		private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+		@Override
+		public void event(InputDevice device, int type, int code, int value, long sec, long usec) {
+			events.add(event(type, code, value));
+		}
+
+		/* Wait for a number of frames, and get their events */
+		private List<String> frames(int frames) throws InterruptedException {
+			List<String> l = new ArrayList<>();
+			String report = event(Ev.EV_SYN, SYN_REPORT, 0);
+			while (frames > 0) {
+				String e = events.poll(10, TimeUnit.SECONDS);
+				if (e == null)
+					fail("Timed out waiting for events, got " + l);
+				l.add(e);
+				if (e.equals(report))
+					frames--;
+			}
+			return l;
+		}
+
+		private static String event(int type, int code, int value) {
+			return type + ":" + code + "=" + value;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.InputDevice.RawEventSink;
+
+/**
+ * Checks that once warmed up, reading events as primitives allocates nothing,
+ * by measuring how much the reading thread allocates while events are read
+ * from a pipe.
+ */
+class InputDeviceAllocationTest {
+
+	/* Events in one batch, all of which fit in the pipe's buffer at once */
+	private final static int FRAMES = 256;
+	private final static int EVENTS = FRAMES * 4;
+	private final static int ROUNDS = 20;
+	private final static int WARM_UP_ROUNDS = 200;
+
+	private Path dir;
+	private EventFifo fifo;
+	private com.sun.management.ThreadMXBean threads;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "Thread allocation is not measurable.");
+		threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported(), "Thread allocation is not measurable.");
+		threads.setThreadAllocatedMemoryEnabled(true);
+		dir = Files.createTempDirectory("linuxio");
+		fifo = new EventFifo(dir, "event0");
+		fifo.getDevice().setNonBlocking(true);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (fifo != null)
+			fifo.close();
+		if (dir != null)
+			Files.deleteIfExists(dir);
+	}
+
+	@Test
+	void testReadEventsAllocatesNothingPerEvent() throws IOException {
+		byte[] batch = batch();
+		Counter counter = new Counter();
+		InputDevice device = fifo.getDevice();
+
+		for (int i = 0; i < WARM_UP_ROUNDS; i++)
+			assertEquals(EVENTS, round(device, batch, counter));
+
+		long id = Thread.currentThread().getId();
+		/* What measuring itself costs, so it can be taken away */
+		long overhead = threads.getThreadAllocatedBytes(id);
+		overhead = threads.getThreadAllocatedBytes(id) - overhead;
+
+		long least = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			fifo.write(batch);
+			long before = threads.getThreadAllocatedBytes(id);
+			int read = read(device, counter);
+			long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+			assertEquals(EVENTS, read);
+			/* Anything the JIT compiler or GC does on this thread may spoil a round, so take the best */
+			least = Math.min(least, allocated);
+		}
+		assertEquals(0, least, String.format("Allocated %d bytes for %d events.", least, EVENTS));
+		/* The state was still tracked, the last frame pressed the button */
+		assertTrue(device.getState().isKeyDown(EventCode.BTN_LEFT));
+	}
+
+	@Test
+	void testRawCallbackAllocatesNothingPerEvent() throws Exception {
+		byte[] batch = batch();
+		InputController controller = InputController.getInstance();
+		InputDevice device = fifo.getDevice();
+		RawCounter counter = new RawCounter();
+		controller.subscribe(device, null, counter);
+		try {
+			for (int i = 0; i < WARM_UP_ROUNDS; i++)
+				assertEquals(EVENTS, round(batch, counter));
+
+			/* Measured on the polling thread, which calls back */
+			long id = counter.thread;
+			long least = Long.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++) {
+				long before = threads.getThreadAllocatedBytes(id);
+				assertEquals(EVENTS, round(batch, counter));
+				least = Math.min(least, threads.getThreadAllocatedBytes(id) - before);
+			}
+			assertEquals(0, least, String.format("Allocated %d bytes for %d events.", least, EVENTS));
+		} finally {
+			controller.release(device).get(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private static byte[] batch() {
+		int[][] events = new int[EVENTS][];
+		for (int i = 0; i < FRAMES; i++) {
+			events[i * 4] = new int[] { EventCode.Ev.EV_REL, EventCode.REL_X.code(), i };
+			events[i * 4 + 1] = new int[] { EventCode.Ev.EV_REL, EventCode.REL_Y.code(), -i };
+			events[i * 4 + 2] = new int[] { EventCode.Ev.EV_KEY, EventCode.BTN_LEFT.code(), i & 1 };
+			events[i * 4 + 3] = new int[] { EventCode.Ev.EV_SYN, EventCode.SYN_REPORT.code(), 0 };
+		}
+		return EventFifo.encode(events);
+	}
+
+	/* Write a batch, and wait for the polling thread to have called back for all of it */
+	private int round(byte[] batch, RawCounter counter) throws IOException, InterruptedException {
+		counter.events = 0;
+		fifo.write(batch);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (counter.events < EVENTS && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		return counter.events;
+	}
+
+	private int round(InputDevice device, byte[] batch, Counter counter) throws IOException {
+		fifo.write(batch);
+		return read(device, counter);
+	}
+
+	private static int read(InputDevice device, Counter counter) throws IOException {
+		counter.events = 0;
+		while (counter.events < EVENTS) {
+			if (device.readEvents(counter, InputDevice.DEFAULT_MAX_EVENTS) == 0)
+				break;
+		}
+		return counter.events;
+	}
+
+	private final static class RawCounter implements InputController.RawCallback {
+		private volatile int events;
+		private volatile long thread;
+		/* Uses every argument, so none can be optimised away */
+		private long sum;
+
+		@Override
+		public void event(InputDevice device, int type, int code, int value, long sec, long usec) {
+			thread = Thread.currentThread().getId();
+			sum += type + code + value + sec + usec;
+			/* Only ever written by the polling thread */
+			events++;
+		}
+	}
+
+	private final static class Counter implements RawEventSink {
+		private int events;
+		/* Uses every argument, so none can be optimised away */
+		private long sum;
+
+		@Override
+		public void event(int type, int code, int value, long sec, long usec) {
+			events++;
+			sum += type + code + value + sec + usec;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+
+/**
+ * Checks cached devices survive a save and load, and are thrown away when the
+ * device is replaced. The device node is a plain file, which can be identified
+ * but not probed, so any device that is not served from the cache fails to be
+ * probed.
+ */
+class InputDeviceCacheTest {
+
+	private Path dir;
+	private Path node;
+	private Path link;
+	private Path cacheFile;
+	private FakeSysfs sysfs;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("linuxio");
+		node = Files.createFile(dir.resolve("event0"));
+		link = Files.createDirectories(dir.resolve("by-id")).resolve("usb-Test_Mouse-event-mouse");
+		Files.createSymbolicLink(link, link.getParent().relativize(node));
+		cacheFile = dir.resolve("cache").resolve("devices.bin");
+		sysfs = new FakeSysfs(Files.createDirectories(dir.resolve("sysfs")));
+		sysfs.device("event0", "Test Mouse", 3, 0x046d, 0xc52b, 0x111)
+				.capabilities("event0", "ev", Ev.EV_SYN, Ev.EV_KEY, Ev.EV_REL)
+				.capabilities("event0", "key", EventCode.BTN_LEFT.code())
+				.capabilities("event0", "rel", EventCode.REL_X.code(), EventCode.REL_Y.code());
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> s = Files.walk(dir)) {
+			s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		InputDevice device = cache.put(link, InputDevice.probe(node, sysfs.getRoot()));
+		assertEquals(link, device.getFile());
+		assertFalse(device.isOpen());
+		cache.save();
+		assertTrue(Files.exists(cacheFile));
+
+		cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		InputDevice cached = cache.get(node);
+		assertFalse(cached.isOpen());
+		assertEquals(node, cached.getFile());
+		assertEquals("Test Mouse", cached.getName());
+		assertEquals(0x046d, cached.getVendor());
+		assertEquals(0xc52b, cached.getProduct());
+		for (int type = 0; type < Ev.EV_CNT; type++)
+			assertArrayEquals(device.getCapabilityBits(type), cached.getCapabilityBits(type));
+
+		/* The link shares the entry of its node */
+		assertEquals(link, cache.get(link).getFile());
+	}
+
+	@Test
+	void testReplacedNode() throws IOException {
+		save();
+
+		/* A new node in the same place, which exists alongside the old so cannot share its inode */
+		Path replacement = Files.createFile(dir.resolve("event0.new"));
+		Files.move(replacement, node, StandardCopyOption.REPLACE_EXISTING);
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		assertThrows(IOException.class, () -> cache.get(link));
+	}
+
+	@Test
+	void testReplacedInSysfs() throws IOException {
+		save();
+
+		Path entry = sysfs.getRoot().resolve("event0");
+		Files.setLastModifiedTime(entry,
+				FileTime.fromMillis(Files.getLastModifiedTime(entry).toMillis() + 60000));
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		assertThrows(IOException.class, () -> cache.get(node));
+	}
+
+	@Test
+	void testInvalidate() throws IOException {
+		save();
+
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		cache.get(node);
+		cache.invalidate(link);
+		assertThrows(IOException.class, () -> cache.get(node));
+	}
+
+	@Test
+	void testClear() throws IOException {
+		save();
+
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		cache.clear();
+		cache.save();
+		assertThrows(IOException.class, () -> new InputDeviceCache(cacheFile, sysfs.getRoot()).get(node));
+	}
+
+	@Test
+	void testUnreadableCacheIgnored() throws IOException {
+		Files.createDirectories(cacheFile.getParent());
+		Files.write(cacheFile, new byte[] { 1, 2, 3 });
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		assertThrows(IOException.class, () -> cache.get(node));
+	}
+
+	private void save() throws IOException {
+		InputDeviceCache cache = new InputDeviceCache(cacheFile, sysfs.getRoot());
+		cache.put(node, InputDevice.probe(node, sysfs.getRoot()));
+		cache.save();
+	}
+}
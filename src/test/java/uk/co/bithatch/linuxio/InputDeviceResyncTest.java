@@ -0,0 +1,165 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that state is tracked a frame at a time, and that after the kernel
+ * drops events, the device is resynchronised against the state of the last
+ * complete frame. The kernel's idea of the key state is faked.
+ */
+class InputDeviceResyncTest {
+
+	private final static int EV_SYN = EventCode.Ev.EV_SYN;
+	private final static int EV_KEY = EventCode.Ev.EV_KEY;
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+	private final static int KEY_A = EventCode.KEY_A.code();
+	private final static int KEY_B = EventCode.KEY_B.code();
+	private final static int KEY_C = EventCode.KEY_C.code();
+
+	private Path dir;
+	private EventFifo fifo;
+	private InputDevice device;
+	private final long[] kernelKeys = new long[Bits.words(InputState.KEY_CNT)];
+	private final List<String> events = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("linuxio");
+		fifo = new EventFifo(dir, "event0", file -> new InputDevice(file) {
+			@Override
+			protected void readCaps() {
+				/* A pipe has no capabilities to read, and none are needed */
+			}
+
+			@Override
+			long[] queryBits(int cmd, int bits) {
+				return cmd == Input.Macros.EVIOCGKEY(Bits.nativeBytes(InputState.KEY_CNT)) ? kernelKeys.clone()
+						: new long[Bits.words(bits)];
+			}
+		});
+		device = fifo.getDevice();
+		device.setNonBlocking(true);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (fifo != null)
+			fifo.close();
+		if (dir != null)
+			Files.deleteIfExists(dir);
+	}
+
+	@Test
+	void testStateChangesWithEachFrame() throws IOException {
+		fifo.write(new int[] { EV_KEY, KEY_A, 1 });
+		read();
+		assertFalse(device.getState().isKeyDown(KEY_A), "Frame is not complete yet");
+		fifo.write(new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+		assertTrue(device.getState().isKeyDown(KEY_A));
+		assertEquals(1, device.getState().getKeysDown());
+	}
+
+	@Test
+	void testResyncSendsChangesOnlyInDroppedFrame() throws IOException {
+		fifo.write(new int[] { EV_KEY, KEY_A, 1 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+		events.clear();
+
+		/* B went down in the frame that was cut short, C went up and down while dropped */
+		Bits.set(kernelKeys, KEY_A, true);
+		Bits.set(kernelKeys, KEY_B, true);
+		fifo.write(new int[] { EV_KEY, KEY_B, 1 }, new int[] { EV_SYN, SYN_DROPPED, 0 },
+				new int[] { EV_KEY, KEY_C, 1 }, new int[] { EV_KEY, KEY_C, 0 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+
+		assertEquals(list(EV_KEY, KEY_B, 1, EV_SYN, SYN_DROPPED, 0, EV_KEY, KEY_B, 1, EV_SYN, SYN_REPORT, 0), events);
+		assertTrue(device.getState().isKeyDown(KEY_A));
+		assertTrue(device.getState().isKeyDown(KEY_B));
+		assertFalse(device.getState().isKeyDown(KEY_C));
+		assertEquals(1, device.getDroppedCount());
+	}
+
+	@Test
+	void testResyncReportsReleases() throws IOException {
+		fifo.write(new int[] { EV_KEY, KEY_A, 1 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+		events.clear();
+
+		fifo.write(new int[] { EV_SYN, SYN_DROPPED, 0 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+
+		assertEquals(list(EV_SYN, SYN_DROPPED, 0, EV_KEY, KEY_A, 0, EV_SYN, SYN_REPORT, 0), events);
+		assertFalse(device.getState().isKeyDown(KEY_A));
+	}
+
+	@Test
+	void testEventsQueuedAfterResyncNotRepeated() throws IOException {
+		/* C was pressed after the dropped events, so the kernel already reports it as down */
+		Bits.set(kernelKeys, KEY_C, true);
+		fifo.write(new int[] { EV_SYN, SYN_DROPPED, 0 }, new int[] { EV_SYN, SYN_REPORT, 0 },
+				new int[] { EV_KEY, KEY_C, 1 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+
+		assertEquals(list(EV_SYN, SYN_DROPPED, 0, EV_KEY, KEY_C, 1, EV_SYN, SYN_REPORT, 0), events);
+		assertTrue(device.getState().isKeyDown(KEY_C));
+		events.clear();
+
+		/* Released after the resync, which must still be seen */
+		fifo.write(new int[] { EV_KEY, KEY_C, 0 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+		assertEquals(list(EV_KEY, KEY_C, 0, EV_SYN, SYN_REPORT, 0), events);
+		assertFalse(device.getState().isKeyDown(KEY_C));
+	}
+
+	@Test
+	void testResyncIsAlwaysClosed() throws IOException {
+		fifo.write(new int[] { EV_SYN, SYN_DROPPED, 0 }, new int[] { EV_SYN, SYN_REPORT, 0 });
+		read();
+
+		assertEquals(list(EV_SYN, SYN_DROPPED, 0, EV_SYN, SYN_REPORT, 0), events);
+	}
+
+	private void read() throws IOException {
+		while (device.readEvents((type, code, value, sec, usec) -> events.add(type + ":" + code + "=" + value),
+				InputDevice.DEFAULT_MAX_EVENTS) > 0)
+			;
+	}
+
+	private static List<String> list(int... events) {
+		List<String> l = new ArrayList<>();
+		for (int i = 0; i < events.length; i += 3)
+			l.add(events[i] + ":" + events[i + 1] + "=" + events[i + 2]);
+		return l;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+
+/**
+ * Checks devices that appear are described from sysfs without being opened,
+ * and are closed once they disappear. The device nodes are plain files.
+ */
+class InputDeviceWatcherTest {
+
+	private Path dir;
+	private Path devices;
+	private FakeSysfs sysfs;
+	private String was;
+	private InputDeviceWatcher watcher;
+	private final BlockingQueue<InputDevice> added = new LinkedBlockingQueue<>();
+	private final BlockingQueue<InputDevice> removed = new LinkedBlockingQueue<>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("linuxio");
+		devices = Files.createDirectories(dir.resolve("input"));
+		sysfs = new FakeSysfs(Files.createDirectories(dir.resolve("sysfs")));
+		was = System.getProperty(SysfsInput.INPUT_SYSFS);
+		System.setProperty(SysfsInput.INPUT_SYSFS, sysfs.getRoot().toString());
+		watcher = new InputDeviceWatcher(devices, InputController.getInstance());
+		watcher.addListener(new InputDeviceWatcher.Listener() {
+			@Override
+			public void added(InputDevice device) {
+				added.add(device);
+			}
+
+			@Override
+			public void removed(InputDevice device) {
+				removed.add(device);
+			}
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (watcher != null)
+			watcher.close();
+		if (was == null)
+			System.clearProperty(SysfsInput.INPUT_SYSFS);
+		else
+			System.setProperty(SysfsInput.INPUT_SYSFS, was);
+		try (Stream<Path> s = Files.walk(dir)) {
+			s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	void testProbedNotOpened() throws Exception {
+		sysfs.device("event0", "Present", 3, 1, 1, 1).capabilities("event0", "ev", Ev.EV_SYN, Ev.EV_KEY)
+				.capabilities("event0", "key", EventCode.KEY_A.code());
+		Files.createFile(devices.resolve("event0"));
+		watcher.start();
+		InputDevice present = added.poll(10, TimeUnit.SECONDS);
+		assertNotNull(present);
+		assertEquals("Present", present.getName());
+		assertFalse(present.isOpen());
+
+		sysfs.device("event1", "Plugged In", 3, 1, 2, 1).capabilities("event1", "ev", Ev.EV_SYN, Ev.EV_REL)
+				.capabilities("event1", "rel", EventCode.REL_X.code());
+		Files.createFile(devices.resolve("event1"));
+		InputDevice plugged = added.poll(10, TimeUnit.SECONDS);
+		assertNotNull(plugged);
+		assertEquals("Plugged In", plugged.getName());
+		assertTrue(plugged.hasCapability(EventCode.REL_X));
+		assertFalse(plugged.isOpen());
+
+		Files.delete(devices.resolve("event1"));
+		assertEquals(plugged, removed.poll(10, TimeUnit.SECONDS));
+		/* Closed once nothing is polling it, which is straight away */
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!plugged.isClosed() && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertTrue(plugged.isClosed());
+		assertFalse(present.isClosed());
+	}
+}
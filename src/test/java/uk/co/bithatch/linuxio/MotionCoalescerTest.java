@@ -0,0 +1,160 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks motion is summed until a flush point, and that everything else keeps
+ * its place around it.
+ */
+class MotionCoalescerTest {
+
+	private final static int EV_SYN = EventCode.Ev.EV_SYN;
+	private final static int EV_KEY = EventCode.Ev.EV_KEY;
+	private final static int EV_REL = EventCode.Ev.EV_REL;
+	private final static int EV_MSC = EventCode.Ev.EV_MSC;
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int REL_X = EventCode.REL_X.code();
+	private final static int REL_Y = EventCode.REL_Y.code();
+	private final static int REL_WHEEL = EventCode.REL_WHEEL.code();
+	private final static int MSC_TIMESTAMP = EventCode.MSC_TIMESTAMP.code();
+	private final static int BTN_LEFT = EventCode.BTN_LEFT.code();
+
+	private final List<String> delivered = new ArrayList<>();
+
+	@Test
+	void testSumsFrames() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().frames(3));
+		for (int i = 0; i < 2; i++)
+			motion(coalescer, 1, 2);
+		assertEquals(events(), delivered);
+		motion(coalescer, 1, 2);
+		assertEquals(events(EV_REL, REL_X, 3, EV_REL, REL_Y, 6, EV_SYN, SYN_REPORT, 0), delivered);
+	}
+
+	@Test
+	void testFramesWithoutMotionPassThrough() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().frames(3));
+		coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		assertEquals(events(EV_SYN, SYN_REPORT, 0), delivered);
+	}
+
+	@Test
+	void testButtonsKeepTheirPlace() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().frames(10));
+		motion(coalescer, 1, 0);
+		coalescer.event(EV_KEY, BTN_LEFT, 1, 0, 0);
+		coalescer.event(EV_REL, REL_X, 2, 0, 0);
+		coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		assertEquals(events(EV_REL, REL_X, 1, EV_KEY, BTN_LEFT, 1, EV_REL, REL_X, 2, EV_SYN, SYN_REPORT, 0),
+				delivered);
+	}
+
+	@Test
+	void testWheelOnlySummedIfAsked() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().frames(2));
+		coalescer.event(EV_REL, REL_WHEEL, 1, 0, 0);
+		coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		assertEquals(events(EV_REL, REL_WHEEL, 1, EV_SYN, SYN_REPORT, 0), delivered);
+		delivered.clear();
+
+		coalescer = coalescer(new MotionCoalescing().frames(2).wheel(true));
+		for (int i = 0; i < 2; i++) {
+			coalescer.event(EV_REL, REL_WHEEL, 1, 0, 0);
+			coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		}
+		assertEquals(events(EV_REL, REL_WHEEL, 2, EV_SYN, SYN_REPORT, 0), delivered);
+	}
+
+	@Test
+	void testLatestTimestamp() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().frames(2));
+		for (int i = 1; i <= 2; i++) {
+			coalescer.event(EV_REL, REL_X, 1, 0, 0);
+			coalescer.event(EV_REL, REL_Y, 1, 0, 0);
+			coalescer.event(EV_MSC, MSC_TIMESTAMP, i * 1000, 0, 0);
+			coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+		}
+		assertEquals(events(EV_REL, REL_X, 2, EV_REL, REL_Y, 2, EV_MSC, MSC_TIMESTAMP, 2000, EV_SYN, SYN_REPORT, 0),
+				delivered);
+	}
+
+	@Test
+	void testRequestFlush() {
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing());
+		motion(coalescer, 5, 0);
+		assertEquals(-1, coalescer.tick(System.nanoTime()));
+		assertEquals(events(), delivered);
+
+		coalescer.requestFlush();
+		coalescer.tick(System.nanoTime());
+		assertEquals(events(EV_REL, REL_X, 5, EV_SYN, SYN_REPORT, 0), delivered);
+	}
+
+	@Test
+	void testWindow() {
+		long window = TimeUnit.SECONDS.toNanos(10);
+		MotionCoalescer coalescer = coalescer(new MotionCoalescing().window(10, TimeUnit.SECONDS));
+		motion(coalescer, 5, 0);
+		long wait = coalescer.tick(System.nanoTime());
+		assertTrue(wait > 0 && wait <= window, "Should wait until the end of the window");
+		assertEquals(events(), delivered);
+
+		coalescer.tick(System.nanoTime() + window);
+		assertEquals(events(EV_REL, REL_X, 5, EV_SYN, SYN_REPORT, 0), delivered);
+	}
+
+	@Test
+	void testNegativeLimits() {
+		assertThrows(IllegalArgumentException.class, () -> new MotionCoalescing().frames(-1));
+		assertThrows(IllegalArgumentException.class, () -> new MotionCoalescing().window(-1, TimeUnit.SECONDS));
+	}
+
+	private MotionCoalescer coalescer(MotionCoalescing coalescing) {
+		return new MotionCoalescer((type, code, value, sec, usec) -> delivered.add(event(type, code, value)),
+				coalescing);
+	}
+
+	private static void motion(MotionCoalescer coalescer, int x, int y) {
+		if (x != 0)
+			coalescer.event(EV_REL, REL_X, x, 0, 0);
+		if (y != 0)
+			coalescer.event(EV_REL, REL_Y, y, 0, 0);
+		coalescer.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+	}
+
+	private static String event(int type, int code, int value) {
+		return type + ":" + code + "=" + value;
+	}
+
+	private static List<String> events(int... events) {
+		List<String> l = new ArrayList<>();
+		for (int i = 0; i < events.length; i += 3)
+			l.add(event(events[i], events[i + 1], events[i + 2]));
+		return l;
+	}
+}
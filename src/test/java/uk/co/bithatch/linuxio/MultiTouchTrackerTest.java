@@ -0,0 +1,208 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.EventCode.AbsoluteValue;
+
+/**
+ * Checks contacts are tracked across slots, and what happens to them when the
+ * kernel drops events.
+ */
+class MultiTouchTrackerTest {
+
+	private final static int EV_SYN = EventCode.Ev.EV_SYN;
+	private final static int EV_ABS = EventCode.Ev.EV_ABS;
+	private final static int SYN_REPORT = EventCode.SYN_REPORT.code();
+	private final static int SYN_DROPPED = EventCode.SYN_DROPPED.code();
+	private final static int SLOT = EventCode.ABS_MT_SLOT.code();
+	private final static int TRACKING_ID = EventCode.ABS_MT_TRACKING_ID.code();
+	private final static int X = EventCode.ABS_MT_POSITION_X.code();
+	private final static int Y = EventCode.ABS_MT_POSITION_Y.code();
+
+	private final List<String> calls = new ArrayList<>();
+
+	private final MultiTouchTracker.Listener listener = new MultiTouchTracker.Listener() {
+		@Override
+		public void contactDown(MultiTouchTracker tracker, int slot, int trackingId) {
+			calls.add("down " + slot + " " + trackingId);
+		}
+
+		@Override
+		public void contactMove(MultiTouchTracker tracker, int slot, int trackingId) {
+			calls.add("move " + slot + " " + trackingId);
+		}
+
+		@Override
+		public void contactUp(MultiTouchTracker tracker, int slot, int trackingId) {
+			calls.add("up " + slot + " " + trackingId);
+		}
+
+		@Override
+		public void frame(MultiTouchTracker tracker, long sec, long usec) {
+			calls.add("frame");
+		}
+	};
+
+	@Test
+	void testContactsAcrossSlots() {
+		MultiTouchTracker tracker = new MultiTouchTracker(2, listener);
+
+		abs(tracker, SLOT, 0);
+		abs(tracker, TRACKING_ID, 10);
+		abs(tracker, X, 100);
+		abs(tracker, Y, 200);
+		abs(tracker, SLOT, 1);
+		abs(tracker, TRACKING_ID, 11);
+		abs(tracker, X, 300);
+		report(tracker);
+		assertEquals(List.of("down 0 10", "down 1 11", "frame"), calls);
+		assertEquals(2, tracker.getContacts());
+		assertEquals(100, tracker.getX(0));
+		assertEquals(200, tracker.getY(0));
+		assertEquals(300, tracker.getX(1));
+		calls.clear();
+
+		/* The slot carries over from the last frame */
+		abs(tracker, X, 310);
+		abs(tracker, SLOT, 0);
+		abs(tracker, TRACKING_ID, -1);
+		report(tracker);
+		assertEquals(List.of("move 1 11", "up 0 10", "frame"), calls);
+		assertEquals(310, tracker.getX(1));
+		assertEquals(-1, tracker.getTrackingId(0));
+		assertEquals(1, tracker.getContacts());
+		calls.clear();
+
+		/* Frames that change nothing are not reported */
+		abs(tracker, X, 100);
+		report(tracker);
+		assertEquals(Collections.emptyList(), calls);
+	}
+
+	@Test
+	void testNewContactInOneFrame() {
+		MultiTouchTracker tracker = new MultiTouchTracker(1, listener);
+		abs(tracker, TRACKING_ID, 1);
+		report(tracker);
+		abs(tracker, TRACKING_ID, -1);
+		abs(tracker, TRACKING_ID, 2);
+		report(tracker);
+		assertEquals(List.of("down 0 1", "frame", "up 0 1", "down 0 2", "frame"), calls);
+	}
+
+	@Test
+	void testDroppedWithoutDeviceLiftsEverything() {
+		MultiTouchTracker tracker = new MultiTouchTracker(3, listener);
+		abs(tracker, SLOT, 0);
+		abs(tracker, TRACKING_ID, 1);
+		abs(tracker, SLOT, 2);
+		abs(tracker, TRACKING_ID, 2);
+		report(tracker);
+		calls.clear();
+
+		tracker.event(EV_SYN, SYN_DROPPED, 0, 0, 0);
+		report(tracker);
+		assertEquals(List.of("up 0 1", "up 2 2", "frame"), calls);
+		assertEquals(0, tracker.getContacts());
+	}
+
+	@Test
+	void testDroppedResyncsSlotsAndCurrentSlot() throws IOException {
+		int[][] kernel = new int[][] { { 5, -1 }, { 50, 0 } };
+		int[] kernelSlot = new int[] { 0 };
+		MultiTouchTracker tracker = new MultiTouchTracker(touchDevice(kernel, kernelSlot), listener);
+		report(tracker);
+		assertEquals(List.of("down 0 5", "frame"), calls);
+		calls.clear();
+
+		/* Contact 5 lifted and 6 went down in slot 1 while events were dropped */
+		kernel[0][0] = -1;
+		kernel[0][1] = 6;
+		kernel[1][1] = 60;
+		kernelSlot[0] = 1;
+		tracker.event(EV_SYN, SYN_DROPPED, 0, 0, 0);
+		report(tracker);
+		assertEquals(List.of("down 1 6", "up 0 5", "frame"), calls);
+		assertEquals(60, tracker.getX(1));
+		calls.clear();
+
+		/* The slot of the kernel is current, so this moves contact 6 */
+		abs(tracker, X, 61);
+		report(tracker);
+		assertEquals(List.of("move 1 6", "frame"), calls);
+		assertEquals(61, tracker.getX(1));
+	}
+
+	@Test
+	void testNeedsSlots() {
+		assertThrows(IllegalArgumentException.class, () -> new MultiTouchTracker(0, listener));
+	}
+
+	private static void abs(MultiTouchTracker tracker, int code, int value) {
+		tracker.event(EV_ABS, code, value, 0, 0);
+	}
+
+	private static void report(MultiTouchTracker tracker) {
+		tracker.event(EV_SYN, SYN_REPORT, 0, 0, 0);
+	}
+
+	/*
+	 * A two slot device with tracking IDs and X positions, where kernel[0] are
+	 * the tracking IDs of each slot, and kernel[1] the X positions.
+	 */
+	private static InputDevice touchDevice(int[][] kernel, int[] kernelSlot) {
+		long[][] caps = new long[EventCode.Ev.EV_CNT][];
+		caps[EV_ABS] = new long[Bits.words(EventCode.Type.count(EV_ABS))];
+		Bits.set(caps[EV_ABS], SLOT, true);
+		Bits.set(caps[EV_ABS], TRACKING_ID, true);
+		Bits.set(caps[EV_ABS], X, true);
+		return new InputDevice(Paths.get("/dev/input/event99"), "Touch", "1.0.1", 0, 0, 0, 0, caps, new long[1]) {
+			@Override
+			public Map<EventCode, Map<AbsoluteValue, Integer>> getAbsoluteValues() {
+				Map<AbsoluteValue, Integer> slot = new EnumMap<>(AbsoluteValue.class);
+				slot.put(AbsoluteValue.MIN, 0);
+				slot.put(AbsoluteValue.MAX, 1);
+				return Map.of(EventCode.ABS_MT_SLOT, slot);
+			}
+
+			@Override
+			void getMultiTouchSlots(int[] buf) {
+				int[] values = buf[0] == TRACKING_ID ? kernel[0] : kernel[1];
+				System.arraycopy(values, 0, buf, 1, values.length);
+			}
+
+			@Override
+			int queryAbsoluteValue(int code) {
+				return kernelSlot[0];
+			}
+		};
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Linux I/O For Java - A JNA based library providing access to some low-level Linux subsystems
+ * Copyright © 2012 Bithatch (tanktarta@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.bithatch.linuxio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.co.bithatch.linuxio.EventCode.Ev;
+import uk.co.bithatch.linuxio.EventCode.Property;
+
+/**
+ * Checks devices are described from sysfs without being opened.
+ */
+class SysfsInputTest {
+
+	private Path dir;
+	private FakeSysfs sysfs;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("linuxio");
+		sysfs = new FakeSysfs(dir);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> s = Files.walk(dir)) {
+			s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	void testProbe() throws IOException {
+		sysfs.device("event3", "Test Mouse", 3, 0x046d, 0xc52b, 0x111)
+				.capabilities("event3", "ev", Ev.EV_SYN, Ev.EV_KEY, Ev.EV_REL)
+				.capabilities("event3", "key", EventCode.BTN_LEFT.code(), EventCode.BTN_RIGHT.code())
+				.capabilities("event3", "rel", EventCode.REL_X.code(), EventCode.REL_Y.code(),
+						EventCode.REL_WHEEL.code())
+				.properties("event3", Property.INPUT_PROP_POINTER.code());
+
+		InputDevice device = InputDevice.probe(dir.resolve("event3"), sysfs.getRoot());
+		assertFalse(device.isOpen());
+		assertEquals("Test Mouse", device.getName());
+		assertEquals(3, device.getBus());
+		assertEquals(0x046d, device.getVendor());
+		assertEquals(0xc52b, device.getProduct());
+		assertEquals(0x111, device.getVersion());
+		assertTrue(device.hasCapability(EventCode.BTN_LEFT));
+		assertTrue(device.hasCapability(EventCode.REL_WHEEL));
+		assertFalse(device.hasCapability(EventCode.BTN_MIDDLE));
+		assertFalse(device.hasCapability(Ev.EV_ABS));
+		assertEquals(EnumSet.of(Property.INPUT_PROP_POINTER), device.getProperties());
+	}
+
+	@Test
+	void testOlderKernelWithoutFiles() throws IOException {
+		/* No properties, and a type listed without its capabilities file */
+		sysfs.device("event0", "Old", 0x11, 1, 1, 0xab41).capabilities("event0", "ev", Ev.EV_SYN, Ev.EV_KEY,
+				Ev.EV_MSC);
+		sysfs.capabilities("event0", "key", EventCode.KEY_A.code());
+
+		InputDevice device = InputDevice.probe(dir.resolve("event0"), sysfs.getRoot());
+		assertTrue(device.hasCapability(EventCode.KEY_A));
+		assertFalse(device.hasCapability(Ev.EV_MSC));
+		assertTrue(device.getProperties().isEmpty());
+	}
+
+	@Test
+	void testClosedWithoutOpening() throws IOException {
+		sysfs.device("event2", "Keys", 3, 1, 1, 1).capabilities("event2", "ev", Ev.EV_SYN, Ev.EV_KEY, Ev.EV_ABS)
+				.capabilities("event2", "key", EventCode.KEY_A.code())
+				.capabilities("event2", "abs", EventCode.ABS_MT_SLOT.code());
+		InputDevice device = InputDevice.probe(dir.resolve("event2"), sysfs.getRoot());
+		device.close();
+		assertTrue(device.isClosed());
+		assertFalse(device.isOpen());
+
+		/* Nothing may use the descriptor it never had */
+		assertThrows(IOException.class, () -> device.readEvents((type, code, value, sec, usec) -> {
+		}, InputDevice.DEFAULT_MAX_EVENTS));
+		assertThrows(IOException.class, () -> device.setEventMask(null));
+		assertThrows(IOException.class, () -> device.grab());
+		assertThrows(IOException.class, () -> device.queryAbsoluteValue(EventCode.ABS_MT_SLOT.code()));
+		assertThrows(IOException.class, () -> device.getMultiTouchSlots(new int[] { EventCode.ABS_MT_SLOT.code(), 0 }));
+	}
+
+	@Test
+	void testInvalid() throws IOException {
+		assertThrows(IOException.class, () -> InputDevice.probe(dir.resolve("event9"), sysfs.getRoot()));
+
+		sysfs.device("event1", "Bad", 3, 1, 1, 1).capabilities("event1", "ev", Ev.EV_SYN, Ev.EV_KEY).write("event1",
+				"capabilities/key", "not hex");
+		assertThrows(IOException.class, () -> InputDevice.probe(dir.resolve("event1"), sysfs.getRoot()));
+
+		sysfs.write("event1", "capabilities/key", "1").write("event1", "id/vendor", "zz");
+		assertThrows(IOException.class, () -> InputDevice.probe(dir.resolve("event1"), sysfs.getRoot()));
+	}
+}